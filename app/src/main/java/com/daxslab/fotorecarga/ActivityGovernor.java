@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Decides when continuous recognition can slow down because nobody is scanning: the phone has
+ * been still for {@link #STILL_MS} and the last {@link #NO_TEXT_FRAMES_BEFORE_IDLE} frames had no
+ * text, as when it lies on a table. Any movement is reported to the handler right away so that
+ * recognition can return to full rate. Devices without motion sensors fall back on the text
+ * signal alone, over more frames.
+ *
+ * Sensor events arrive on the main thread while results come from the recognition pipeline.
+ */
+final class ActivityGovernor implements SensorEventListener {
+
+  private static final String TAG = ActivityGovernor.class.getSimpleName();
+
+  private static final long STILL_MS = 3000L;
+  private static final int NO_TEXT_FRAMES_BEFORE_IDLE = 10;
+  private static final int NO_TEXT_FRAMES_BEFORE_IDLE_WITHOUT_SENSORS = 30;
+  /** Change in acceleration, in m/s^2, that counts as movement. */
+  private static final float ACCELERATION_THRESHOLD = 0.6f;
+  /** Rotation rate, in rad/s, that counts as movement. */
+  private static final float ROTATION_THRESHOLD = 0.3f;
+  /** Weight of the newest sample in the low-passed gravity estimate. */
+  private static final float GRAVITY_FILTER = 0.1f;
+  private static final long MIN_MOTION_MESSAGE_INTERVAL_MS = 500L;
+
+  private final SensorManager sensorManager;
+  private final Handler handler;
+  private final int motionMessage;
+  private final float[] gravity = new float[3];
+  private boolean hasGravity;
+  private boolean listening;
+  private volatile long lastMotionTime;
+  private long lastMotionMessageTime;
+  private volatile int noTextFrames;
+
+  /**
+   * @param handler Receives motionMessage whenever the phone starts moving.
+   */
+  ActivityGovernor(Context context, Handler handler, int motionMessage) {
+    this.sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+    this.handler = handler;
+    this.motionMessage = motionMessage;
+  }
+
+  void start() {
+    lastMotionTime = System.currentTimeMillis();
+    noTextFrames = 0;
+    hasGravity = false;
+    if (sensorManager == null) {
+      return;
+    }
+    listening = register(Sensor.TYPE_ACCELEROMETER);
+    listening |= register(Sensor.TYPE_GYROSCOPE);
+    Log.i(TAG, "Motion sensors available: " + listening);
+  }
+
+  void stop() {
+    if (sensorManager != null) {
+      sensorManager.unregisterListener(this);
+    }
+    listening = false;
+  }
+
+  private boolean register(int type) {
+    Sensor sensor = sensorManager.getDefaultSensor(type);
+    return sensor != null
+        && sensorManager.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI);
+  }
+
+  /**
+   * @param textFound Whether the last recognized frame had any text in the framing rectangle.
+   */
+  void onRecognitionResult(boolean textFound) {
+    noTextFrames = textFound ? 0 : noTextFrames + 1;
+  }
+
+  /**
+   * @return Whether continuous recognition should run at the idle rate.
+   */
+  boolean shouldIdle() {
+    if (!listening) {
+      return noTextFrames >= NO_TEXT_FRAMES_BEFORE_IDLE_WITHOUT_SENSORS;
+    }
+    return noTextFrames >= NO_TEXT_FRAMES_BEFORE_IDLE
+        && System.currentTimeMillis() - lastMotionTime >= STILL_MS;
+  }
+
+  @Override
+  public void onSensorChanged(SensorEvent event) {
+    boolean moving;
+    if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+      moving = magnitude(event.values[0], event.values[1], event.values[2]) > ROTATION_THRESHOLD;
+    } else {
+      if (!hasGravity) {
+        System.arraycopy(event.values, 0, gravity, 0, 3);
+        hasGravity = true;
+      }
+      for (int i = 0; i < 3; i++) {
+        gravity[i] += GRAVITY_FILTER * (event.values[i] - gravity[i]);
+      }
+      moving = magnitude(event.values[0] - gravity[0],
+                         event.values[1] - gravity[1],
+                         event.values[2] - gravity[2]) > ACCELERATION_THRESHOLD;
+    }
+    if (!moving) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    lastMotionTime = now;
+    noTextFrames = 0;
+    if (now - lastMotionMessageTime >= MIN_MOTION_MESSAGE_INTERVAL_MS) {
+      lastMotionMessageTime = now;
+      handler.sendEmptyMessage(motionMessage);
+    }
+  }
+
+  @Override
+  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    // Not needed
+  }
+
+  private static float magnitude(float x, float y, float z) {
+    return (float) Math.sqrt(x * x + y * y + z * z);
+  }
+
+}
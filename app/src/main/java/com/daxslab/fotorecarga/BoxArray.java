@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import com.googlecode.leptonica.android.Box;
+import com.googlecode.leptonica.android.Pixa;
+
+/**
+ * Immutable list of the bounding boxes of one layout level (regions, text lines, words...), kept
+ * as left, top, right and bottom packed one box after the other in a single int array, instead of
+ * one Rect per box. Once built it can be shared freely between threads.
+ */
+public final class BoxArray {
+
+  private static final int INTS_PER_BOX = 4;
+
+  public static final BoxArray EMPTY = new BoxArray(new int[0], 0);
+
+  private final int[] coordinates;
+  private final int size;
+
+  private BoxArray(int[] coordinates, int size) {
+    this.coordinates = coordinates;
+    this.size = size;
+  }
+
+  /**
+   * Reads the geometry of every box in the Pixa, without creating a Box or Rect for each, and
+   * recycles the Pixa.
+   */
+  public static BoxArray fromPixa(Pixa pixa) {
+    if (pixa == null) {
+      return EMPTY;
+    }
+    try {
+      int count = pixa.size();
+      int[] coordinates = new int[count * INTS_PER_BOX];
+      int[] geometry = new int[4];
+      int size = 0;
+      for (int i = 0; i < count; i++) {
+        if (!pixa.getBoxGeometry(i, geometry)) {
+          continue;
+        }
+        int offset = size * INTS_PER_BOX;
+        int x = geometry[Box.INDEX_X];
+        int y = geometry[Box.INDEX_Y];
+        coordinates[offset] = x;
+        coordinates[offset + 1] = y;
+        coordinates[offset + 2] = x + geometry[Box.INDEX_W];
+        coordinates[offset + 3] = y + geometry[Box.INDEX_H];
+        size++;
+      }
+      return new BoxArray(coordinates, size);
+    } finally {
+      pixa.recycle();
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int left(int index) {
+    return coordinates[index * INTS_PER_BOX];
+  }
+
+  public int top(int index) {
+    return coordinates[index * INTS_PER_BOX + 1];
+  }
+
+  public int right(int index) {
+    return coordinates[index * INTS_PER_BOX + 2];
+  }
+
+  public int bottom(int index) {
+    return coordinates[index * INTS_PER_BOX + 3];
+  }
+
+  public int width(int index) {
+    return right(index) - left(index);
+  }
+
+  public int height(int index) {
+    return bottom(index) - top(index);
+  }
+
+  public int centerY(int index) {
+    return (top(index) + bottom(index)) >> 1;
+  }
+
+}
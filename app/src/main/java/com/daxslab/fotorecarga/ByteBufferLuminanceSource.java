@@ -0,0 +1,150 @@
+/*
+ * Copyright 2009 ZXing authors
+ * Copyright 2011 Robert Theis
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.daxslab.fotorecarga;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This object extends LuminanceSource around a luminance plane held in a {@link ByteBuffer},
+ * typically a direct buffer handed out by the camera stack, with the option to crop to a
+ * rectangle within the full plane.
+ *
+ * Unlike {@link PlanarYUVLuminanceSource} the plane does not have to be tightly packed: rows may
+ * be padded (row stride greater than the width) and pixels may be interleaved with other samples
+ * (pixel stride greater than one), as with the planes of an android.media.Image. Rows are copied
+ * out with bulk {@link ByteBuffer#get(byte[], int, int)} calls, so the pixel data can stay
+ * off-heap until the decoder asks for it.
+ *
+ * Instances are not thread safe; give each thread its own crop.
+ */
+public final class ByteBufferLuminanceSource extends LuminanceSource {
+
+  private final ByteBuffer buffer;
+  private final int dataWidth;
+  private final int dataHeight;
+  private final int rowStride;
+  private final int pixelStride;
+  private final int left;
+  private final int top;
+  private byte[] strideRow;
+
+  public ByteBufferLuminanceSource(ByteBuffer buffer,
+                                   int dataWidth,
+                                   int dataHeight,
+                                   int rowStride,
+                                   int pixelStride,
+                                   int left,
+                                   int top,
+                                   int width,
+                                   int height) {
+    super(width, height);
+
+    if (left < 0 || top < 0 || left + width > dataWidth || top + height > dataHeight) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    if (pixelStride < 1 || rowStride < (dataWidth - 1) * pixelStride + 1) {
+      throw new IllegalArgumentException("Strides do not fit the image width: row stride "
+          + rowStride + ", pixel stride " + pixelStride);
+    }
+
+    // Work on our own view of the buffer so that position changes never leak to the caller.
+    this.buffer = buffer.duplicate();
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.left = left;
+    this.top = top;
+  }
+
+  @Override
+  public byte[] getRow(int y, byte[] row) {
+    if (y < 0 || y >= getHeight()) {
+      throw new IllegalArgumentException("Requested row is outside the image: " + y);
+    }
+    int width = getWidth();
+    if (row == null || row.length < width) {
+      row = new byte[width];
+    }
+    copyRow(y, row, 0);
+    return row;
+  }
+
+  @Override
+  public byte[] getMatrix() {
+    int width = getWidth();
+    int height = getHeight();
+    byte[] matrix = new byte[width * height];
+
+    // A tightly packed plane covering full rows can be read with a single bulk copy.
+    if (pixelStride == 1 && rowStride == width && width == dataWidth) {
+      buffer.position(top * rowStride);
+      buffer.get(matrix, 0, matrix.length);
+      return matrix;
+    }
+
+    for (int y = 0; y < height; y++) {
+      copyRow(y, matrix, y * width);
+    }
+    return matrix;
+  }
+
+  @Override
+  public boolean isCropSupported() {
+    return true;
+  }
+
+  @Override
+  public LuminanceSource crop(int left, int top, int width, int height) {
+    if (left < 0 || top < 0 || left + width > getWidth() || top + height > getHeight()) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
+    return new ByteBufferLuminanceSource(buffer,
+                                         dataWidth,
+                                         dataHeight,
+                                         rowStride,
+                                         pixelStride,
+                                         this.left + left,
+                                         this.top + top,
+                                         width,
+                                         height);
+  }
+
+  /**
+   * Copies one cropped row into the output, de-interleaving it when the pixel stride is not one.
+   * The scratch array used for strided rows is allocated once and reused for every later row.
+   */
+  private void copyRow(int y, byte[] output, int outputOffset) {
+    int width = getWidth();
+    int rowStart = (y + top) * rowStride + left * pixelStride;
+    buffer.position(rowStart);
+    if (pixelStride == 1) {
+      buffer.get(output, outputOffset, width);
+      return;
+    }
+
+    int span = (width - 1) * pixelStride + 1;
+    if (strideRow == null || strideRow.length < span) {
+      strideRow = new byte[span];
+    }
+    buffer.get(strideRow, 0, span);
+    for (int x = 0, i = 0; x < width; x++, i += pixelStride) {
+      output[outputOffset + x] = strideRow[i];
+    }
+  }
+
+}
@@ -22,13 +22,13 @@ import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -39,6 +39,8 @@ import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
+import android.view.Gravity;
+import android.view.KeyEvent;
 import android.view.MenuItem;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -46,13 +48,12 @@ import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.daxslab.fotorecarga.camera.CameraManager;
+import com.daxslab.fotorecarga.camera.CameraThread;
 import com.googlecode.tesseract.android.TessBaseAPI;
 
-import java.io.File;
-import java.io.IOException;
-
 
 /**
  * This activity opens the camera and does the actual scanning on a background thread. It draws a
@@ -77,39 +78,61 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
      */
     private static final boolean CONTINUOUS_DISPLAY_RECOGNIZED_TEXT = true;
 
+    /**
+     * Minimum time between two glare hints, so that a glossy card does not flood the screen.
+     */
+    private static final long GLARE_HINT_INTERVAL_MS = 4000L;
+
+    /**
+     * Preference holding whether recognized codes are queued for a batch recharge session.
+     */
+    private static final String KEY_BATCH_MODE = "preference_batch_mode";
+
+    /**
+     * Number of codes listed in the batch status view.
+     */
+    private static final int BATCH_STATUS_CODES = 3;
+
     private static final int CAMERA_PERMISSION_CODE = 100;
     private static final int PHONE_PERMISSION_CODE = 101;
 
     private CameraManager cameraManager;
+    private CameraThread cameraThread;
+    private PerformanceGovernor performanceGovernor;
     private CaptureActivityHandler handler;
     private ViewfinderView viewfinderView;
     private SurfaceView surfaceView;
     private SurfaceHolder surfaceHolder;
     private TextView ocrResultView;
     private FloatingActionButton aboutButton;
+    private FloatingActionButton batchButton;
+    private TextView batchStatusView;
     private TextView imeiTextView;
     private View cameraButtonView;
     private View resultView;
     private View progressView;
-    private OcrResult currentResult;
-    private OcrResult lastResult;
-    private long lastCallTime = 0;
+    private String recognizedCode;
+    // Code whose journal check is under way
+    private String checkingCode;
+    private long lastGlareHintTime;
     private Bitmap lastBitmap;
     private boolean hasSurface;
     //  private BeepManager beepManager;
     private TessBaseAPI baseApi; // Java interface for the Tesseract OCR engine
-    private String sourceLanguageCodeOcr = "eng"; // ISO 639-3 language code
+    private RecognitionDeadline recognitionDeadline; // stops recognitions that run too long
     private int pageSegmentationMode = TessBaseAPI.PageSegMode.PSM_AUTO_OSD;
-    private int ocrEngineMode = TessBaseAPI.OEM_TESSERACT_ONLY;
     private boolean isContinuousModeActive = true; // Whether we are doing OCR in continuous mode
     private SharedPreferences prefs;
     private OnSharedPreferenceChangeListener listener;
-    private ProgressDialog dialog; // for initOcr - language download & unzip
-    private ProgressDialog indeterminateDialog; // also for initOcr - init OCR engine
-    private boolean isEngineReady;
+    private ProgressDialog indeterminateDialog; // for initOcr - init OCR engine
+    private StartupOrchestrator startupOrchestrator;
+    private OcrEngineHolder engineHolder;
     private boolean isPaused;
     private static boolean isFirstLaunch; // True if this is the first time the app is being run
-    private String encodedHash;
+    private RechargeSubmitter rechargeSubmitter;
+    private RechargeQueue rechargeQueue;
+    private CodeJournal codeJournal;
+    private boolean isBatchModeActive;
 
 
     Handler getHandler() {
@@ -120,10 +143,22 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         return baseApi;
     }
 
+    RecognitionDeadline getRecognitionDeadline() {
+        return recognitionDeadline;
+    }
+
     CameraManager getCameraManager() {
         return cameraManager;
     }
 
+    PerformanceGovernor getPerformanceGovernor() {
+        return performanceGovernor;
+    }
+
+    ViewfinderView getViewfinderView() {
+        return viewfinderView;
+    }
+
     @Override
     public void onCreate(Bundle icicle) {
         requestWindowFeature(Window.FEATURE_INDETERMINATE_PROGRESS);
@@ -134,24 +169,36 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             setDefaultPreferences();
         }
 
-        encodedHash = Uri.encode("#");
+        rechargeSubmitter = new RechargeSubmitter(this, rechargeCallback);
+        rechargeQueue = new RechargeQueue(this, rechargeQueueListener);
+        codeJournal = CodeJournal.getInstance(this);
 
         Window window = getWindow();
         window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
         setContentView(R.layout.capture);
         viewfinderView = (ViewfinderView) findViewById(R.id.viewfinder_view);
+        viewfinderView.setOnClickListener(onViewfinderClick);
         resultView = findViewById(R.id.result_view);
 
         aboutButton = (FloatingActionButton) findViewById(R.id.fab_button_about);
         aboutButton.setOnClickListener(onAboutButtonClick(this));
+        batchButton = (FloatingActionButton) findViewById(R.id.fab_button_batch);
+        batchButton.setOnClickListener(onBatchButtonClick);
+        batchStatusView = (TextView) findViewById(R.id.batch_status_text_view);
 
         handler = null;
-        currentResult = null;
+        recognizedCode = null;
         hasSurface = false;
 
         progressView = (View) findViewById(R.id.indeterminate_progress_indicator_view);
 
-        isEngineReady = false;
+        performanceGovernor = new PerformanceGovernor(getApplication());
+
+        // Usually already initialized along with the process, or kept from a previous instance.
+        engineHolder = OcrEngineHolder.getInstance();
+        engineHolder.acquire(this);
+        startupOrchestrator = StartupOrchestrator.getInstance();
+
         // check camera permissions (for new apis)
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             if (this.getApplicationContext().checkSelfPermission(Manifest.permission.CAMERA)
@@ -170,11 +217,15 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
 
     private void initCameraManager(){
         cameraManager = new CameraManager(getApplication());
+        cameraThread = new CameraThread(cameraManager);
+        cameraThread.setLostCallback(cameraLostCallback);
         viewfinderView.setCameraManager(cameraManager);
 
         surfaceView = (SurfaceView) findViewById(R.id.preview_view);
         surfaceHolder = surfaceView.getHolder();
-        initCamera(surfaceHolder);
+        if (hasSurface) {
+            initCamera(surfaceHolder);
+        }
 
     }
 
@@ -185,6 +236,9 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
 
 
         retrievePreferences();
+        performanceGovernor.start();
+        updateBatchStatus();
+        rechargeQueue.resume();
 
         // Set up the camera preview surface.
         surfaceView = (SurfaceView) findViewById(R.id.preview_view);
@@ -194,64 +248,100 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             surfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
         }
 
-        int previousOcrEngineMode = ocrEngineMode;
-
-        // Do OCR engine initialization, if necessary
-        boolean doNewInit = (baseApi == null) || ocrEngineMode != previousOcrEngineMode;
-        Log.d(TAG, "new init?: " + doNewInit);
-        if (doNewInit) {
-            // Initialize the OCR engine
-            File storageDirectory = getStorageDirectory();
-            if (storageDirectory != null) {
-                initOcrEngine(storageDirectory, sourceLanguageCodeOcr);
-                Log.d(TAG, "Initialized OCR engine");
-            }
-        } else {
-            // We already have the engine initialized, so just start the camera.
-            resumeOCR();
+        // In case an earlier initialization failed
+        engineHolder.initialize(this);
+        if (!engineHolder.isReady()) {
+            showEngineInitDialog();
         }
 
+        if (hasSurface) {
+            // The activity was paused but not stopped, so the surface still exists. Therefore
+            // surfaceCreated() won't be called, so init the camera here.
+            Log.d(TAG, "initializing camera");
+            initCamera(surfaceHolder);
+        }
     }
 
 
     /**
-     * Method to start or restart recognition after the OCR engine has been initialized,
-     * or after the app regains focus. Sets state related settings and OCR engine parameters,
-     * and requests camera initialization.
+     * Method to start or restart recognition once both the OCR engine has been initialized and
+     * the camera opened. Sets state related settings and OCR engine parameters, and starts the
+     * handler to begin previewing.
      */
     void resumeOCR() {
         Log.d(TAG, "resumeOCR()");
-
-        // This method is called when Tesseract has already been successfully initialized, so set
-        // isEngineReady = true here.
-        isEngineReady = true;
+        dismissEngineInitDialog();
 
         isPaused = false;
 
-        if (handler != null) {
-            handler.resetState();
-        }
-        if (baseApi != null) {
+        baseApi = engineHolder.getBaseApi();
+        recognitionDeadline = engineHolder.getRecognitionDeadline();
+        // A recognition of the previous session may still be running on the engine.
+        synchronized (baseApi) {
             baseApi.setPageSegMode(pageSegmentationMode);
         }
 
-        if (hasSurface) {
-            // The activity was paused but not stopped, so the surface still exists. Therefore
-            // surfaceCreated() won't be called, so init the camera here.
-            Log.d(TAG, "initializing camera");
-            initCamera(surfaceHolder);
+        try {
+            // Creating the handler starts the preview, which can throw a RuntimeException.
+            handler = new CaptureActivityHandler(this, cameraManager, cameraThread,
+                    isContinuousModeActive);
+            handler.setBatchMode(isBatchModeActive);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            showErrorMessage("Error", "Could not initialize camera. Please try restarting device.");
         }
     }
 
+    /** Joins engine initialization and camera opening. */
+    private final StartupOrchestrator.Listener startupListener = new StartupOrchestrator.Listener() {
+        @Override
+        public void onScannerReady() {
+            resumeOCR();
+        }
+
+        @Override
+        public void onEngineFailed() {
+            dismissEngineInitDialog();
+            showErrorMessage("Error", "Could not initialize the OCR engine.");
+        }
+
+        @Override
+        public void onCameraFailed(Exception e) {
+            // Barcode Scanner has seen crashes in the wild of this variety:
+            // java.?lang.?RuntimeException: Fail to connect to camera service
+            Log.e(TAG, "Could not open the camera", e);
+            dismissEngineInitDialog();
+            showErrorMessage("Error", "Could not initialize camera. Please try restarting device.");
+        }
+    };
+
 
     /**
-     * Called to resume recognition after translation in continuous mode.
+     * Opens the camera again once another app or a restart of the camera service took it away;
+     * if it cannot be opened, {@link #startupListener} shows the error.
+     */
+    private final CameraThread.LostCallback cameraLostCallback = new CameraThread.LostCallback() {
+        @Override
+        public void onCameraLost() {
+            if (handler == null) {
+                // Paused, or not started yet; the camera is opened anew either way.
+                return;
+            }
+            Log.w(TAG, "Camera lost; opening it again");
+            handler.quit();
+            handler = null;
+            if (hasSurface) {
+                initCamera(surfaceHolder);
+            }
+        }
+    };
+
+    /**
+     * Called to resume recognition after a recharge in continuous mode.
      */
-    @SuppressWarnings("unused")
     void resumeContinuousDecoding() {
         isPaused = false;
         resetStatusView();
-        DecodeHandler.resetDecodeState();
         handler.resetState();
     }
 
@@ -263,50 +353,47 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             Log.e(TAG, "surfaceCreated gave us a null surface");
         }
 
-        // Only initialize the camera if the OCR engine is ready to go.
-        if (!hasSurface && isEngineReady) {
+        // The camera opens while the OCR engine may still be initializing.
+        if (!hasSurface) {
+            hasSurface = true;
             Log.d(TAG, "surfaceCreated(): calling initCamera()...");
             initCamera(holder);
         }
-        hasSurface = true;
   }
 
     /**
-     * Initializes the camera and starts the handler to begin previewing.
+     * Opens the camera off the main thread; recognition starts in {@link #resumeOCR()} once the
+     * OCR engine is ready as well.
      */
     private void initCamera(SurfaceHolder surfaceHolder) {
         Log.d(TAG, "initCamera()");
         if (surfaceHolder == null) {
             throw new IllegalStateException("No SurfaceHolder provided");
         }
-        try {
-
-            // Open and initialize the camera
-            cameraManager.openDriver(surfaceHolder);
-
-            // Creating the handler starts the preview, which can also throw a RuntimeException.
-            handler = new CaptureActivityHandler(this, cameraManager, isContinuousModeActive);
-
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
-            showErrorMessage("Error", "Could not initialize camera. Please try restarting device.");
-        } catch (RuntimeException e) {
-            // Barcode Scanner has seen crashes in the wild of this variety:
-            // java.?lang.?RuntimeException: Fail to connect to camera service
-            e.printStackTrace();
-            showErrorMessage("Error", "Could not initialize camera. Please try restarting device.");
+        if (cameraManager == null) {
+            // Still waiting for the camera permission
+            return;
         }
+
+        // Open and initialize the camera, with a preview as small as the device can afford
+        cameraManager.setTargetDigitHeight(performanceGovernor.getTargetDigitHeight());
+        startupOrchestrator.startCamera(cameraThread, surfaceHolder, startupListener);
     }
 
     @Override
     protected void onPause() {
+        rechargeQueue.pause();
+        startupOrchestrator.cancel();
+        dismissEngineInitDialog();
         if (handler != null) {
-            handler.quitSynchronously();
+            handler.quit();
+            handler = null;
         }
 
-        // Stop using the camera, to avoid conflicting with other camera-based apps
-        if (cameraManager != null){
-            cameraManager.closeDriver();
+        // Stop using the camera, to avoid conflicting with other camera-based apps. Closing runs
+        // on the camera thread, after any open still in progress.
+        if (cameraThread != null){
+            cameraThread.close(null);
         }
 
         if (!hasSurface) {
@@ -314,6 +401,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
             SurfaceHolder surfaceHolder = surfaceView.getHolder();
             surfaceHolder.removeCallback(this);
         }
+        performanceGovernor.stop();
         super.onPause();
     }
 
@@ -325,12 +413,36 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
 
     @Override
     protected void onDestroy() {
-        if (baseApi != null) {
-            baseApi.end();
+        if (cameraThread != null) {
+            cameraThread.quit();
         }
+        // The engine outlives this instance for a while, in case the scanner comes back soon.
+        engineHolder.release();
+        baseApi = null;
         super.onDestroy();
     }
 
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_CAMERA) {
+            if (handler != null && event.getRepeatCount() == 0) {
+                handler.hardwareShutterButtonClick();
+            }
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    /** Tapping the viewfinder reads the code in it right away, like the shutter key. */
+    private final View.OnClickListener onViewfinderClick = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            if (handler != null) {
+                handler.hardwareShutterButtonClick();
+            }
+        }
+    };
+
 
     public View.OnClickListener onAboutButtonClick(final Activity activity) {
         View.OnClickListener listener = new View.OnClickListener() {
@@ -354,150 +466,245 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     }
 
     /**
-     * Finds the proper location on the SD card where we can save files.
+     * Shows the welcome dialog while the OCR engine is still initializing.
      */
-    private File getStorageDirectory() {
-
-        return getFilesDir();
-    }
-
-    /**
-     * Requests initialization of the OCR engine with the given parameters.
-     *
-     * @param storageRoot  Path to location of the tessdata directory to use
-     * @param languageCode Three-letter ISO 639-3 language code for OCR
-     */
-    private void initOcrEngine(File storageRoot, String languageCode) {
-        isEngineReady = false;
-
-        // Set up the dialog box for the thermometer-style download progress indicator
-        if (dialog != null) {
-            dialog.dismiss();
-        }
-        dialog = new ProgressDialog(this);
-
-        // set the ocrEngineMode to Tesseract
-        ocrEngineMode = TessBaseAPI.OEM_TESSERACT_ONLY;
-
-        // Display the name of the OCR engine we're initializing in the indeterminate progress dialog box
+    private void showEngineInitDialog() {
+        dismissEngineInitDialog();
         indeterminateDialog = new ProgressDialog(this);
         indeterminateDialog.setTitle(getString(R.string.ocr_engine_init_dialog_wellcome));
         indeterminateDialog.setMessage(getString(R.string.ocr_engine_init_dialog_body));
         indeterminateDialog.setCancelable(false);
         indeterminateDialog.show();
+    }
 
-        if (handler != null) {
-            handler.quitSynchronously();
+    private void dismissEngineInitDialog() {
+        if (indeterminateDialog != null) {
+            try {
+                indeterminateDialog.dismiss();
+            } catch (IllegalArgumentException e) {
+                // Catch "View not attached to window manager" error, and continue
+            }
+            indeterminateDialog = null;
         }
-
-        // Start AsyncTask to install language data and init OCR
-        baseApi = new TessBaseAPI();
-        new OcrInitAsyncTask(this, baseApi, dialog, indeterminateDialog, languageCode, ocrEngineMode)
-                .execute(storageRoot.toString());
     }
 
     /**
-     * Remove not numeric chars from ocrResult text, if there is no numbers
-     * or the length is not 16 (the etecsa code length) ocrResult text = null.
+     * Submits the recharge once continuous recognition has confirmed a code. A code that was
+     * already submitted is skipped in batch mode, and otherwise only submitted again if the user
+     * confirms it, since the carrier's answer does not tell whether it was accepted.
+     *
+     * @param code The recharge code, as voted by the recognition pipeline
      */
-    OcrResult setOnlyNumbers(OcrResult ocrResult) {
-        String codeString = ocrResult.getText();
-
-        String codeNumber = "";
-        for (int i = 0; i < codeString.length(); i++) {
-            char codeChar = codeString.charAt(i);
-            if (codeChar == '0' || codeChar == '1' || codeChar == '2' || codeChar == '3' ||
-                    codeChar == '4' || codeChar == '5' || codeChar == '6' || codeChar == '7' ||
-                    codeChar == '8' || codeChar == '9') {
-                codeNumber += codeChar;
-            }
+    void handleCodeRecognized(String code) {
+        if (code.equals(checkingCode)) {
+            return;
         }
-        if (codeNumber.equals("") || codeNumber.length() != 16)
-            ocrResult.setText(null);
-        else
-            ocrResult.setText(codeNumber);
+        checkingCode = code;
+        codeJournal.checkSubmitted(code, journalCheckCallback);
+    }
 
-        return ocrResult;
+    private final CodeJournal.CheckCallback journalCheckCallback = new CodeJournal.CheckCallback() {
+        @Override
+        public void onChecked(String code, boolean submitted) {
+            if (code.equals(checkingCode)) {
+                checkingCode = null;
+            }
+            // Once paused, or busy with another code, the card is simply read again later.
+            if (handler != null && handler.isRecognizing()) {
+                handleCodeChecked(code, submitted);
+            }
+        }
+    };
+
+    private void handleCodeChecked(final String code, boolean submitted) {
+        if (submitted) {
+            if (isBatchModeActive) {
+                Log.d(TAG, "Skipping a code that was already submitted");
+                Toast toast = Toast.makeText(this, R.string.code_already_submitted,
+                        Toast.LENGTH_SHORT);
+                toast.setGravity(Gravity.TOP, 0, 0);
+                toast.show();
+                return;
+            }
+            // Hold recognition back, or the same card would be asked about again meanwhile.
+            stopHandler();
+            new AlertDialog.Builder(this)
+                    .setMessage(R.string.code_already_submitted_confirm)
+                    .setPositiveButton(R.string.code_submit_again,
+                            new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    submitCode(code);
+                                }
+                            })
+                    .setNegativeButton(android.R.string.cancel,
+                            new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    dialog.cancel();
+                                }
+                            })
+                    .setOnCancelListener(new DialogInterface.OnCancelListener() {
+                        @Override
+                        public void onCancel(DialogInterface dialog) {
+                            if (handler != null) {
+                                resumeContinuousDecoding();
+                            }
+                        }
+                    })
+                    .show();
+            return;
+        }
+        submitCode(code);
     }
 
-    /**
-     * Displays information relating to the results of a successful real-time OCR request.
-     *
-     * @param ocrResult Object representing successful OCR results
-     */
-    void handleOcrContinuousDecode(OcrResult ocrResult) {
+    private void submitCode(String code) {
+        codeJournal.record(code, CodeJournal.Outcome.RECOGNIZED);
+        recognizedCode = code;
 
-        ocrResult = setOnlyNumbers(ocrResult);
+        if (CONTINUOUS_DISPLAY_RECOGNIZED_TEXT) {
 
-        long currentTime = System.currentTimeMillis();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                if (this.getApplicationContext().checkSelfPermission(Manifest.permission.CALL_PHONE)
+                        == PackageManager.PERMISSION_DENIED) {
 
-        String lastCode = "";
-        if (lastResult != null) {
-            lastCode = lastResult.getText();
+                    // Requesting the permission
+                    this.requestPermissions(new String[] { Manifest.permission.CALL_PHONE },
+                            PHONE_PERMISSION_CODE);
+                }
+                else {
+                    submitRecharge();
+                }
+            } else {
+                submitRecharge();
+            }
         }
+    }
 
-        // Send an OcrResultText object to the ViewfinderView for text rendering
-        viewfinderView.addResultText(new OcrResultText(ocrResult.getText(),
-                ocrResult.getWordConfidences(),
-                ocrResult.getMeanConfidence(),
-                ocrResult.getBitmapDimensions(),
-                ocrResult.getRegionBoundingBoxes(),
-                ocrResult.getTextlineBoundingBoxes(),
-                ocrResult.getStripBoundingBoxes(),
-                ocrResult.getWordBoundingBoxes(),
-                ocrResult.getCharacterBoundingBoxes()));
-
-        // does nothin else if ocrResult text is null
-        if (ocrResult.getText() == null){
+    /**
+     * In batch mode the code is queued and scanning goes on. Otherwise continuous recognition waits
+     * for the answer, so the same card is not submitted twice, and resumes as soon as it comes in,
+     * with the camera still running.
+     */
+    private void submitRecharge() {
+        if (isBatchModeActive) {
+            if (rechargeQueue.add(recognizedCode)) {
+                Toast toast = Toast.makeText(this, R.string.batch_code_queued, Toast.LENGTH_SHORT);
+                toast.setGravity(Gravity.TOP, 0, 0);
+                toast.show();
+            }
             return;
         }
+        stopHandler();
+        rechargeSubmitter.submit(recognizedCode);
+    }
+
+    private final View.OnClickListener onBatchButtonClick = new View.OnClickListener() {
+        @Override
+        public void onClick(View v) {
+            isBatchModeActive = !isBatchModeActive;
+            prefs.edit().putBoolean(KEY_BATCH_MODE, isBatchModeActive).apply();
+            // Every batch is a new session, and codes left queued when it ends are not submitted;
+            // they were not used, so they can be scanned again.
+            rechargeQueue.clear();
+            if (handler != null) {
+                handler.setBatchMode(isBatchModeActive);
+            }
+            updateBatchStatus();
+            Toast.makeText(CaptureActivity.this, isBatchModeActive ? R.string.batch_mode_on
+                    : R.string.batch_mode_off, Toast.LENGTH_SHORT).show();
+        }
+    };
 
-        currentResult = ocrResult;
-
-        if (currentResult.getText() != null && currentResult.getText().equals(lastCode) && currentTime >= lastCallTime + 5*1000){
-
-            String code = currentResult.getText();
+    private final RechargeQueue.Listener rechargeQueueListener = new RechargeQueue.Listener() {
+        @Override
+        public void onQueueChanged() {
+            updateBatchStatus();
+        }
+    };
 
-            if (CONTINUOUS_DISPLAY_RECOGNIZED_TEXT && code.length() == 16) {
+    /**
+     * Shows the throughput of the batch session and the status of its newest codes.
+     */
+    private void updateBatchStatus() {
+        if (!isBatchModeActive) {
+            batchStatusView.setVisibility(View.GONE);
+            return;
+        }
+        StringBuilder status = new StringBuilder(getString(R.string.batch_status,
+                rechargeQueue.getPendingCount(), rechargeQueue.getCompletedCount(),
+                rechargeQueue.getCardsPerMinute()));
+        for (RechargeQueue.Entry entry : rechargeQueue.getRecentEntries(BATCH_STATUS_CODES)) {
+            // Only the last digits, enough to tell the cards apart
+            status.append('\n')
+                    .append("\u2026")
+                    .append(entry.code.substring(entry.code.length() - 4))
+                    .append("  ")
+                    .append(getString(getBatchStatusLabel(entry.status)));
+        }
+        batchStatusView.setText(status);
+        batchStatusView.setVisibility(View.VISIBLE);
+    }
+
+    private static int getBatchStatusLabel(RechargeQueue.Status status) {
+        switch (status) {
+            case SUBMITTING:
+                return R.string.batch_code_submitting;
+            case ANSWERED:
+                return R.string.batch_code_answered;
+            case FAILED:
+                return R.string.batch_code_failed;
+            case DIALED:
+                return R.string.batch_code_dialed;
+            default:
+                return R.string.batch_code_waiting;
+        }
+    }
 
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-                    if (this.getApplicationContext().checkSelfPermission(Manifest.permission.CALL_PHONE)
-                            == PackageManager.PERMISSION_DENIED) {
+    private final RechargeSubmitter.Callback rechargeCallback = new RechargeSubmitter.Callback() {
+        @Override
+        public void onRechargeAnswered(String code, CharSequence response) {
+            showRechargeResult(response);
+        }
 
-                        // Requesting the permission
-                        this.requestPermissions(new String[] { Manifest.permission.CALL_PHONE },
-                                PHONE_PERMISSION_CODE);
-                    }
-                    else {
-                        startCallActivity();
-                    }
-                } else {
-                    startCallActivity();
-                }
-            }
+        @Override
+        public void onRechargeFailed(String code) {
+            showRechargeResult(getString(R.string.recharge_failed));
+        }
 
-            lastResult = null;
-        } else {
-            lastResult = currentResult;
+        @Override
+        public void onRechargeDialed(String code) {
+            // The activity pauses, and recognition restarts when the user comes back.
         }
-    }
+    };
 
-    private void startCallActivity(){
-        lastCallTime = System.currentTimeMillis();
-        startActivity(new Intent(Intent.ACTION_CALL, Uri.parse("tel:*662*" + currentResult.getText() + encodedHash)));
+    private void showRechargeResult(CharSequence message) {
+        Toast toast = Toast.makeText(this, message, Toast.LENGTH_LONG);
+        toast.setGravity(Gravity.TOP, 0, 0);
+        toast.show();
+        if (handler != null) {
+            resumeContinuousDecoding();
+        }
     }
 
     /**
-     * Version of handleOcrContinuousDecode for failed OCR requests. Displays a failure message.
+     * Tells the user to tilt the card when a frame was skipped because a highlight covered the
+     * code.
      *
-     * @param obj Metadata for the failed OCR request.
+     * @param coverage Share of the code band covered by glare.
      */
-    void handleOcrContinuousDecode(OcrResultFailure obj) {
-        currentResult = null;
-        viewfinderView.removeResultText();
+    void handleGlareDetected(float coverage) {
+        Log.d(TAG, "Skipped frame with glare over " + coverage + " of the code");
+        long now = System.currentTimeMillis();
+        if (now - lastGlareHintTime < GLARE_HINT_INTERVAL_MS) {
+            return;
+        }
+        lastGlareHintTime = now;
+        Toast toast = Toast.makeText(this, R.string.glare_hint, Toast.LENGTH_SHORT);
+        toast.setGravity(Gravity.TOP, 0, 0);
+        toast.show();
     }
 
-
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
         super.onCreateContextMenu(menu, v, menuInfo);
@@ -514,7 +721,6 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
     private void resetStatusView() {
         resultView.setVisibility(View.GONE);
         viewfinderView.setVisibility(View.VISIBLE);
-        currentResult = null;
         viewfinderView.removeResultText();
     }
 
@@ -553,6 +759,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         // Retrieve from preferences, and set in this Activity, the language preferences
         PreferenceManager.setDefaultValues(this, R.xml.preferences, false);
         isContinuousModeActive = true;
+        isBatchModeActive = prefs.getBoolean(KEY_BATCH_MODE, false);
 
         prefs.registerOnSharedPreferenceChangeListener(listener);
 
@@ -606,7 +813,7 @@ public final class CaptureActivity extends AppCompatActivity implements SurfaceH
         }
         if (requestCode == PHONE_PERMISSION_CODE) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                startCallActivity();
+                submitRecharge();
             }
         }
     }
@@ -19,8 +19,11 @@ package com.daxslab.fotorecarga;
 import com.daxslab.fotorecarga.CaptureActivity;
 import com.daxslab.fotorecarga.R;
 import com.daxslab.fotorecarga.camera.CameraManager;
-import com.daxslab.fotorecarga.OcrResult;
+import com.daxslab.fotorecarga.camera.CameraThread;
+import com.daxslab.fotorecarga.camera.Frame;
 
+import android.app.ProgressDialog;
+import android.graphics.Bitmap;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
@@ -37,9 +40,14 @@ final class CaptureActivityHandler extends Handler {
   private static final String TAG = CaptureActivityHandler.class.getSimpleName();
   
   private final CaptureActivity activity;
-  private final DecodeThread decodeThread;
-  private static State state;
+  private final RecognitionScheduler scheduler;
+  private final RecognitionPipeline pipeline;
+  private volatile State state;
   private final CameraManager cameraManager;
+  private final CameraThread cameraThread;
+  private final BeepManager beepManager;
+  // Whether a single shot taken during continuous recognition is under way
+  private boolean singleShotPending;
 
   private enum State {
     PREVIEW,
@@ -50,20 +58,28 @@ final class CaptureActivityHandler extends Handler {
     DONE
   }
 
-  CaptureActivityHandler(CaptureActivity activity, CameraManager cameraManager, boolean isContinuousModeActive) {
+  CaptureActivityHandler(CaptureActivity activity, CameraManager cameraManager,
+                         CameraThread cameraThread, boolean isContinuousModeActive) {
     this.activity = activity;
     this.cameraManager = cameraManager;
+    this.cameraThread = cameraThread;
 
     // Start ourselves capturing previews (and decoding if using continuous recognition mode).
-    cameraManager.startPreview();
+    cameraThread.startPreview();
     
-    decodeThread = new DecodeThread(activity);
-    decodeThread.start();
+    scheduler = new RecognitionScheduler(activity);
+    scheduler.start();
+    pipeline = new RecognitionPipeline(activity, cameraManager, scheduler, this);
+    pipeline.start();
+
+    beepManager = new BeepManager(activity);
+    beepManager.updatePrefs();
     
     if (isContinuousModeActive) {
       state = State.CONTINUOUS;
       
-      restartOcrPreviewAndDecode();
+      activity.drawViewfinder();
+      pipeline.resume();
     } else {
       state = State.SUCCESS;
       restartOcrPreview();
@@ -77,86 +93,120 @@ final class CaptureActivityHandler extends Handler {
       case R.id.restart_preview:
         restartOcrPreview();
         break;
-      case R.id.ocr_continuous_decode_failed:
-        DecodeHandler.resetDecodeState();        
-        try {
-          activity.handleOcrContinuousDecode((OcrResultFailure) message.obj);
-        } catch (NullPointerException e) {
-          Log.w(TAG, "got bad OcrResultFailure", e);
+      case R.id.code_recognized:
+        if (state == State.CONTINUOUS) {
+          activity.handleCodeRecognized((String) message.obj);
         }
+        break;
+      case R.id.ocr_continuous_decode_glare:
         if (state == State.CONTINUOUS) {
-          restartOcrPreviewAndDecode();
+          activity.handleGlareDetected((Float) message.obj);
         }
         break;
-      case R.id.ocr_continuous_decode_succeeded:
-        DecodeHandler.resetDecodeState();
-        try {
-          activity.handleOcrContinuousDecode((OcrResult) message.obj);
-        } catch (NullPointerException e) {
-          // Continue
+      case R.id.ocr_decode:
+        if (state == State.PREVIEW_PAUSED || (state == State.CONTINUOUS && singleShotPending)) {
+          ocrDecode((Frame) message.obj);
+        } else {
+          ((Frame) message.obj).release();
+          singleShotPending = false;
         }
-        if (state == State.CONTINUOUS) {
-          restartOcrPreviewAndDecode();
+        break;
+      case R.id.ocr_decode_succeeded:
+        if (state == State.DONE) {
+          // The activity is pausing and has dismissed its dialogs already.
+          break;
+        }
+        dismissProgressDialog();
+        singleShotPending = false;
+        if (state == State.PREVIEW_PAUSED) {
+          state = State.PREVIEW;
+        } else if (state == State.CONTINUOUS) {
+          // The user picked the moment, so one reading is enough.
+          String code = CodeVoter.extractCode(((OcrResult) message.obj).getText());
+          if (code != null) {
+            activity.handleCodeRecognized(code);
+          } else {
+            showSingleShotFailed();
+          }
         }
         break;
       case R.id.ocr_decode_failed:
-        state = State.PREVIEW;
-        Toast toast = Toast.makeText(activity.getBaseContext(), "Por favor enfoque el código de recarga en la zona rectangular.", Toast.LENGTH_LONG);
-        toast.setGravity(Gravity.TOP, 0, 0);
-        toast.show();
+        if (state == State.DONE) {
+          break;
+        }
+        dismissProgressDialog();
+        singleShotPending = false;
+        if (state == State.PREVIEW_PAUSED) {
+          state = State.PREVIEW;
+          showSingleShotFailed();
+        } else if (state == State.CONTINUOUS) {
+          showSingleShotFailed();
+        }
         break;
     }
   }
+
+  private void dismissProgressDialog() {
+    ProgressDialog dialog = activity.getProgressDialog();
+    if (dialog != null) {
+      dialog.dismiss();
+    }
+  }
+
+  private void showSingleShotFailed() {
+    Toast toast = Toast.makeText(activity.getBaseContext(), "Por favor enfoque el código de recarga en la zona rectangular.", Toast.LENGTH_LONG);
+    toast.setGravity(Gravity.TOP, 0, 0);
+    toast.show();
+  }
   
+  /**
+   * Pauses continuous recognition. May be called from any thread.
+   */
   void stop() {
-    // TODO See if this should be done by sending a quit message to decodeHandler as is done
-    // below in quitSynchronously().
-    
     Log.d(TAG, "Setting state to CONTINUOUS_PAUSED.");
     state = State.CONTINUOUS_PAUSED;
-    removeMessages(R.id.ocr_continuous_decode);
-    removeMessages(R.id.ocr_decode);
-    removeMessages(R.id.ocr_continuous_decode_failed);
-    removeMessages(R.id.ocr_continuous_decode_succeeded); // TODO are these removeMessages() calls doing anything?
-    
-    // Freeze the view displayed to the user.
-//    CameraManager.get().stopPreview();
+    pipeline.pause();
+    // A frame for a single shot is left to arrive, so that it is released.
+    removeMessages(R.id.ocr_continuous_decode_glare);
+    removeMessages(R.id.code_recognized);
   }
   
+  /**
+   * @return Whether continuous recognition is running, rather than paused or done.
+   */
+  boolean isRecognizing() {
+    return state == State.CONTINUOUS;
+  }
+
+  void setBatchMode(boolean batchMode) {
+    pipeline.setBatchMode(batchMode);
+  }
+
   void resetState() {
     //Log.d(TAG, "in restart()");
     if (state == State.CONTINUOUS_PAUSED) {
       Log.d(TAG, "Setting state to CONTINUOUS");
       state = State.CONTINUOUS;
-      restartOcrPreviewAndDecode();
+      cameraThread.startPreview();
+      pipeline.resume();
     }
   }
   
-  void quitSynchronously() {    
+  /**
+   * Stops recognition without waiting for it: the preview stops on the camera thread, and the
+   * recognition in progress is cancelled and finishes on its own thread.
+   */
+  void quit() {
     state = State.DONE;
-    if (cameraManager != null) {
-      cameraManager.stopPreview();
-    }
-    //Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-    try {
-      //quit.sendToTarget(); // This always gives "sending message to a Handler on a dead thread"
-      
-      // Wait at most half a second; should be enough time, and onPause() will timeout quickly
-      decodeThread.join(500L);
-    } catch (InterruptedException e) {
-      Log.w(TAG, "Caught InterruptedException in quitSyncronously()", e);
-      // continue
-    } catch (RuntimeException e) {
-      Log.w(TAG, "Caught RuntimeException in quitSyncronously()", e);
-      // continue
-    } catch (Exception e) {
-      Log.w(TAG, "Caught unknown Exception in quitSynchronously()", e);
-    }
+    cameraThread.stopPreview();
+    pipeline.quit();
+    scheduler.quit();
 
     // Be absolutely sure we don't send any queued up messages
-    removeMessages(R.id.ocr_continuous_decode);
-    removeMessages(R.id.ocr_decode);
-
+    removeMessages(R.id.ocr_continuous_decode_glare);
+    removeMessages(R.id.code_recognized);
+    removeMessages(R.id.ocr_decode_succeeded);
+    removeMessages(R.id.ocr_decode_failed);
   }
 
   /**
@@ -170,34 +220,74 @@ final class CaptureActivityHandler extends Handler {
       activity.drawViewfinder();
     }
   }
-  
+
   /**
-   *  Send a decode request for realtime OCR mode
+   *  Perform an OCR decode for single-shot mode, ahead of any continuous recognition.
+   *  
+   * @param frame Preview frame; released as soon as the cropped bitmap has been rendered
    */
-  private void restartOcrPreviewAndDecode() {
-    // Continue capturing camera frames
-    cameraManager.startPreview();
-    
-    // Continue requesting decode of images
-    cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_continuous_decode);
-    activity.drawViewfinder();    
+  private void ocrDecode(Frame frame) {
+    beepManager.playBeepSoundAndVibrate();
+    activity.displayProgressDialog();
+
+    LuminanceSource source = cameraManager.buildLuminanceSource(frame);
+    if (source == null) {
+      frame.release();
+      obtainMessage(R.id.ocr_decode_failed).sendToTarget();
+      return;
+    }
+    Bitmap bitmap = source.renderCroppedGreyscaleBitmap();
+    frame.release();
+    scheduler.submit(bitmap, RecognitionScheduler.Priority.USER, singleShotCallback);
   }
 
+  /** Sends single-shot results back to this handler. */
+  private final RecognitionScheduler.Callback singleShotCallback =
+      new RecognitionScheduler.Callback() {
+        @Override
+        public void onStarted() {
+          // Nothing to do
+        }
+
+        @Override
+        public void onRecognized(OcrResult result) {
+          obtainMessage(R.id.ocr_decode_succeeded, result).sendToTarget();
+        }
+
+        @Override
+        public void onFailed(OcrResultFailure failure) {
+          obtainMessage(R.id.ocr_decode_failed, failure).sendToTarget();
+        }
+
+        @Override
+        public void onTimedOut(OcrResultTimeout timeout) {
+          obtainMessage(R.id.ocr_decode_failed, timeout).sendToTarget();
+        }
+
+        @Override
+        public void onPreempted() {
+          // Only happens on quit
+        }
+      };
+
   /**
    * Request OCR on the current preview frame. 
    */
-  private void ocrDecode() {
+  private void requestOcrDecode() {
     state = State.PREVIEW_PAUSED;
-    cameraManager.requestOcrDecode(decodeThread.getHandler(), R.id.ocr_decode);
+    cameraManager.requestOcrDecode(this, R.id.ocr_decode);
   }
   
   /**
-   * Request OCR when the hardware shutter button is clicked.
+   * Request OCR when the shutter is pressed. During continuous recognition the single shot runs
+   * ahead of it, which keeps going meanwhile.
    */
   void hardwareShutterButtonClick() {
-    // Ensure that we're not in continuous recognition mode
     if (state == State.PREVIEW) {
-      ocrDecode();
+      requestOcrDecode();
+    } else if (state == State.CONTINUOUS && !singleShotPending) {
+      singleShotPending = true;
+      cameraManager.requestOcrDecode(this, R.id.ocr_decode);
     }
   }
 }
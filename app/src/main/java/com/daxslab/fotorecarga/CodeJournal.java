@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers every code the app has read and what became of it, across runs, so that a card that
+ * was already submitted is not submitted again by mistake.
+ *
+ * The journal is an append-only file of fixed-size records: the code packed into a long (16
+ * digits fit in 54 bits), the time, and the outcome. An in-memory map from packed code to its
+ * latest record answers duplicate checks without touching the disk. The file is read on the
+ * journal's own thread, starting at process start, and rewritten with one record per code once
+ * it holds more than {@link #COMPACT_RATIO} records per code. The rewritten journal is synced to
+ * disk before it replaces the old one.
+ *
+ * Records are written on the journal's thread, in the order they were made. A record cut short by
+ * a crash is cut off the file on the next load, before anything is appended.
+ */
+final class CodeJournal {
+
+  private static final String TAG = CodeJournal.class.getSimpleName();
+
+  private static final String FILE_NAME = "codes.journal";
+  private static final String COMPACT_FILE_NAME = "codes.journal.tmp";
+  /** Packed code, time and outcome. */
+  private static final int RECORD_SIZE = 8 + 8 + 1;
+
+  /** Compaction only pays off once the journal has this many records. */
+  private static final int COMPACT_MIN_RECORDS = 256;
+  private static final int COMPACT_RATIO = 2;
+
+  /** Stored by ordinal, so new outcomes go at the end. */
+  enum Outcome {
+    RECOGNIZED,
+    /**
+     * The network answered the request. Its answer may as well say the card was recharged as that
+     * it was rejected; the wording is up to the carrier.
+     */
+    ANSWERED,
+    FAILED,
+    DIALED;
+
+    /**
+     * Whether the code has reached the carrier, so that submitting it again most likely wastes a
+     * request; a failed or merely read code has not.
+     */
+    boolean isSubmitted() {
+      return this == ANSWERED || this == DIALED;
+    }
+  }
+
+  /** Latest outcome of a code, and when it was recorded. */
+  private static final class Record {
+    final Outcome outcome;
+    final long time;
+
+    Record(Outcome outcome, long time) {
+      this.outcome = outcome;
+      this.time = time;
+    }
+  }
+
+  /** Receives the answer of {@link #checkSubmitted}. */
+  interface CheckCallback {
+
+    void onChecked(String code, boolean submitted);
+  }
+
+  private static CodeJournal instance;
+
+  private final File file;
+  private final File compactFile;
+  private final Handler handler;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Guarded by this
+  private final Map<Long, Record> latest = new HashMap<>();
+  private boolean loaded;
+  private int records;
+
+  static synchronized CodeJournal getInstance(Context context) {
+    if (instance == null) {
+      instance = new CodeJournal(context.getApplicationContext().getFilesDir());
+    }
+    return instance;
+  }
+
+  private CodeJournal(File dir) {
+    file = new File(dir, FILE_NAME);
+    compactFile = new File(dir, COMPACT_FILE_NAME);
+    HandlerThread thread = new HandlerThread("CodeJournal");
+    thread.start();
+    handler = new Handler(thread.getLooper());
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        load();
+      }
+    });
+  }
+
+  /**
+   * Packs a code of up to 18 digits into a long.
+   */
+  static long pack(String code) {
+    return Long.parseLong(code);
+  }
+
+  /**
+   * Tells whether the code was already submitted. Main thread only. The callback is called on the
+   * main thread: right away once the journal is loaded, which is normally long done by the time
+   * the first code is read, and otherwise as soon as it is, without blocking the caller.
+   */
+  void checkSubmitted(final String code, final CheckCallback callback) {
+    boolean ready;
+    boolean submitted = false;
+    synchronized (this) {
+      ready = loaded;
+      if (ready) {
+        submitted = isSubmitted(code);
+      }
+    }
+    if (ready) {
+      callback.onChecked(code, submitted);
+      return;
+    }
+    // Runs after the load, which was posted first.
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        final boolean submitted;
+        synchronized (CodeJournal.this) {
+          submitted = isSubmitted(code);
+        }
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            callback.onChecked(code, submitted);
+          }
+        });
+      }
+    });
+  }
+
+  // Guarded by this
+  private boolean isSubmitted(String code) {
+    Record record = latest.get(pack(code));
+    return record != null && record.outcome.isSubmitted();
+  }
+
+  /**
+   * Records what became of a code.
+   */
+  void record(String code, final Outcome outcome) {
+    final long packed = pack(code);
+    final long time = System.currentTimeMillis();
+    synchronized (this) {
+      put(latest, packed, new Record(outcome, time));
+    }
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        append(packed, time, outcome);
+      }
+    });
+  }
+
+  /**
+   * Makes the record the latest one of its code, unless the code was already submitted: a
+   * submitted code stays so, even if it is read or fails afterwards.
+   */
+  private static void put(Map<Long, Record> latest, long packed, Record record) {
+    Record previous = latest.get(packed);
+    if (previous == null || !previous.outcome.isSubmitted()) {
+      latest.put(packed, record);
+    }
+  }
+
+  // Journal thread only from here on
+
+  private void load() {
+    Map<Long, Record> loadedRecords = new HashMap<>();
+    int count = 0;
+    if (file.exists()) {
+      DataInputStream in = null;
+      try {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        while (true) {
+          long packed = in.readLong();
+          long time = in.readLong();
+          int ordinal = in.readUnsignedByte();
+          count++;
+          if (ordinal >= Outcome.values().length) {
+            continue;
+          }
+          put(loadedRecords, packed, new Record(Outcome.values()[ordinal], time));
+        }
+      } catch (EOFException e) {
+        // End of the journal, possibly in the middle of a record cut short
+      } catch (IOException e) {
+        Log.e(TAG, "Could not read the code journal", e);
+      } finally {
+        closeQuietly(in);
+      }
+      truncate((long) count * RECORD_SIZE);
+    }
+    Log.d(TAG, "Loaded " + count + " records of " + loadedRecords.size() + " codes");
+    synchronized (this) {
+      // Records made while loading are newer
+      for (Map.Entry<Long, Record> entry : latest.entrySet()) {
+        put(loadedRecords, entry.getKey(), entry.getValue());
+      }
+      latest.clear();
+      latest.putAll(loadedRecords);
+      records = count;
+      loaded = true;
+    }
+    compactIfNeeded();
+  }
+
+  /**
+   * Cuts off a record left incomplete by a crash, so that the next one is appended in its place
+   * rather than after it, out of step with every record boundary.
+   */
+  private void truncate(long length) {
+    if (file.length() <= length) {
+      return;
+    }
+    Log.w(TAG, "Dropping " + (file.length() - length) + " bytes of a record cut short");
+    RandomAccessFile journal = null;
+    try {
+      journal = new RandomAccessFile(file, "rw");
+      journal.setLength(length);
+    } catch (IOException e) {
+      Log.e(TAG, "Could not truncate the code journal", e);
+    } finally {
+      closeQuietly(journal);
+    }
+  }
+
+  private void append(long packed, long time, Outcome outcome) {
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      writeRecord(out, packed, time, outcome);
+      out.flush();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not write to the code journal", e);
+      return;
+    } finally {
+      closeQuietly(out);
+    }
+    synchronized (this) {
+      records++;
+    }
+    compactIfNeeded();
+  }
+
+  /**
+   * Rewrites the journal with the latest record of every code, once it has grown well past that.
+   */
+  private void compactIfNeeded() {
+    Map<Long, Record> snapshot;
+    synchronized (this) {
+      if (records < COMPACT_MIN_RECORDS || records <= COMPACT_RATIO * latest.size()) {
+        return;
+      }
+      snapshot = new HashMap<>(latest);
+    }
+    DataOutputStream out = null;
+    try {
+      FileOutputStream fileOut = new FileOutputStream(compactFile);
+      out = new DataOutputStream(new BufferedOutputStream(fileOut));
+      for (Map.Entry<Long, Record> entry : snapshot.entrySet()) {
+        Record record = entry.getValue();
+        writeRecord(out, entry.getKey(), record.time, record.outcome);
+      }
+      out.flush();
+      // On disk before the rename, or a crash could leave an empty journal in place of the old one
+      fileOut.getFD().sync();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not compact the code journal", e);
+      closeQuietly(out);
+      out = null;
+      compactFile.delete();
+      return;
+    } finally {
+      closeQuietly(out);
+    }
+    if (!compactFile.renameTo(file)) {
+      Log.e(TAG, "Could not replace the code journal");
+      compactFile.delete();
+      return;
+    }
+    Log.d(TAG, "Compacted the code journal from " + records + " to " + snapshot.size()
+        + " records");
+    synchronized (this) {
+      // Any record made since the snapshot is still to be appended, after this.
+      records = snapshot.size();
+    }
+  }
+
+  private static void writeRecord(DataOutputStream out, long packed, long time, Outcome outcome)
+      throws IOException {
+    out.writeLong(packed);
+    out.writeLong(time);
+    out.writeByte(outcome.ordinal());
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException e) {
+        // Nothing more to do
+      }
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+/**
+ * Decides when a recharge code has been read reliably: the same digits must come out of two
+ * consecutive readable frames, and a code is not reported again within
+ * {@link #REPEAT_INTERVAL_MS} of the last report. In batch mode the next card may be reported
+ * right away, and only the code just reported is held back, since the queue drops repeats anyway.
+ */
+final class CodeVoter {
+
+  /** Length of an ETECSA recharge code. */
+  static final int CODE_LENGTH = 16;
+
+  private static final long REPEAT_INTERVAL_MS = 5000L;
+
+  private volatile boolean batchMode;
+  private String lastCode;
+  private String lastDecision;
+  private long lastDecisionTime;
+
+  /** May be called from any thread. */
+  void setBatchMode(boolean batchMode) {
+    this.batchMode = batchMode;
+  }
+
+  /**
+   * Removes every character but digits from the recognized text.
+   *
+   * @return The code, or null if the text does not have exactly {@link #CODE_LENGTH} digits.
+   */
+  static String extractCode(String text) {
+    if (text == null) {
+      return null;
+    }
+    StringBuilder code = new StringBuilder(CODE_LENGTH);
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c >= '0' && c <= '9') {
+        code.append(c);
+      }
+    }
+    return code.length() == CODE_LENGTH ? code.toString() : null;
+  }
+
+  /**
+   * @param code Code read from the newest frame, or null if it had none.
+   * @return The code, once the vote confirms it; otherwise null.
+   */
+  String vote(String code) {
+    if (code == null) {
+      return null;
+    }
+    long now = System.currentTimeMillis();
+    boolean due = batchMode ? !code.equals(lastDecision)
+        : now >= lastDecisionTime + REPEAT_INTERVAL_MS;
+    if (code.equals(lastCode) && due) {
+      lastCode = null;
+      lastDecision = code;
+      lastDecisionTime = now;
+      return code;
+    }
+    lastCode = code;
+    return null;
+  }
+
+}
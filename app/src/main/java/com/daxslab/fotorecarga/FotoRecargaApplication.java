@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+
+/**
+ * Starts initializing the OCR engine and loading the code journal as soon as the process starts,
+ * before the scanner activity has even been created.
+ */
+public final class FotoRecargaApplication extends Application {
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    OcrEngineHolder.getInstance().prewarm(this);
+    CodeJournal.getInstance(this);
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+      OcrEngineHolder.getInstance().trimMemory();
+    }
+  }
+
+}
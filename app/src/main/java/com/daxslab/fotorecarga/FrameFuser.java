@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+/**
+ * Averages the framing rectangle over consecutive frames to take the sensor noise out of dim
+ * frames before recognition.
+ *
+ * Each new crop is aligned to the running average by an integer translation: first by normalized
+ * cross-correlation on a {@link #DOWNSAMPLE}x downsampled grid, then refined at full resolution by
+ * the smallest mean absolute difference. It is then blended into a fixed-point running average
+ * with weight 1/{@link #WINDOW}, so the result is close to the mean of the last frames without
+ * ever holding more than the average itself and the newest crop. When a crop does not match the
+ * average, e.g. because another card is being shown, the average starts over from it.
+ *
+ * Not thread-safe: buffers are kept between calls to avoid garbage per frame.
+ */
+final class FrameFuser {
+
+  private static final int DOWNSAMPLE = 4;
+  /** Largest shift searched, in downsampled pixels. */
+  private static final int SEARCH_RADIUS = 3;
+  /** Full resolution pixels searched around the coarse shift. */
+  private static final int REFINE_RADIUS = DOWNSAMPLE / 2;
+  /** Number of frames the running average roughly spans. */
+  private static final int WINDOW = 4;
+  /** Correlation below which a crop is considered a different scene. */
+  private static final float MIN_CORRELATION = 0.6f;
+  private static final int FRACTION_BITS = 8;
+
+  private int width;
+  private int height;
+  private int frames;
+  private int[] accumulator;
+  private byte[] input;
+  private byte[] output;
+  private int[] reference;
+  private int[] current;
+  private byte[] row;
+
+  /**
+   * Drops the running average, e.g. when the light is good enough to recognize single frames.
+   */
+  void reset() {
+    frames = 0;
+  }
+
+  /**
+   * Blends a crop into the running average.
+   *
+   * @param source Luminance of the framing rectangle of the newest frame. Read before returning,
+   *               so its frame may be released afterwards.
+   * @param weight How much the crop should count, from 0 to 1, e.g. less for crops with glare.
+   * @return Luminance of the running average, valid until the next call.
+   */
+  LuminanceSource add(LuminanceSource source, float weight) {
+    int sourceWidth = source.getWidth();
+    int sourceHeight = source.getHeight();
+    if (sourceWidth != width || sourceHeight != height || accumulator == null) {
+      allocate(sourceWidth, sourceHeight);
+    }
+    for (int y = 0; y < height; y++) {
+      row = source.getRow(y, row);
+      System.arraycopy(row, 0, input, y * width, width);
+    }
+
+    if (frames > 0) {
+      int gridWidth = width / DOWNSAMPLE;
+      int gridHeight = height / DOWNSAMPLE;
+      downsampleAccumulator(gridWidth, gridHeight);
+      downsampleInput(gridWidth, gridHeight);
+      int[] coarse = findCoarseShift(gridWidth, gridHeight);
+      if (coarse == null) {
+        frames = 0;
+      } else {
+        int[] shift = refineShift(coarse[0] * DOWNSAMPLE, coarse[1] * DOWNSAMPLE);
+        blend(shift[0], shift[1], weight / Math.min(frames + 1, WINDOW));
+        frames = Math.min(frames + 1, WINDOW);
+      }
+    }
+    if (frames == 0) {
+      for (int i = 0; i < width * height; i++) {
+        accumulator[i] = (input[i] & 0xff) << FRACTION_BITS;
+      }
+      frames = 1;
+    }
+
+    int half = 1 << (FRACTION_BITS - 1);
+    for (int i = 0; i < width * height; i++) {
+      output[i] = (byte) ((accumulator[i] + half) >> FRACTION_BITS);
+    }
+    return new PlanarYUVLuminanceSource(output, width, height, 0, 0, width, height, false);
+  }
+
+  private void allocate(int newWidth, int newHeight) {
+    width = newWidth;
+    height = newHeight;
+    frames = 0;
+    accumulator = new int[width * height];
+    input = new byte[width * height];
+    output = new byte[width * height];
+    int cells = (width / DOWNSAMPLE) * (height / DOWNSAMPLE);
+    reference = new int[cells];
+    current = new int[cells];
+  }
+
+  private void downsampleAccumulator(int gridWidth, int gridHeight) {
+    for (int gy = 0; gy < gridHeight; gy++) {
+      for (int gx = 0; gx < gridWidth; gx++) {
+        int sum = 0;
+        for (int y = gy * DOWNSAMPLE; y < (gy + 1) * DOWNSAMPLE; y++) {
+          int offset = y * width;
+          for (int x = gx * DOWNSAMPLE; x < (gx + 1) * DOWNSAMPLE; x++) {
+            sum += accumulator[offset + x] >> FRACTION_BITS;
+          }
+        }
+        reference[gy * gridWidth + gx] = sum;
+      }
+    }
+  }
+
+  private void downsampleInput(int gridWidth, int gridHeight) {
+    for (int gy = 0; gy < gridHeight; gy++) {
+      for (int gx = 0; gx < gridWidth; gx++) {
+        int sum = 0;
+        for (int y = gy * DOWNSAMPLE; y < (gy + 1) * DOWNSAMPLE; y++) {
+          int offset = y * width;
+          for (int x = gx * DOWNSAMPLE; x < (gx + 1) * DOWNSAMPLE; x++) {
+            sum += input[offset + x] & 0xff;
+          }
+        }
+        current[gy * gridWidth + gx] = sum;
+      }
+    }
+  }
+
+  /**
+   * @return The shift {dx, dy}, in grid cells, such that the new crop at (x + dx, y + dy) best
+   *         matches the average at (x, y); null if no shift matches well.
+   */
+  private int[] findCoarseShift(int gridWidth, int gridHeight) {
+    float best = MIN_CORRELATION;
+    int[] bestShift = null;
+    for (int dy = -SEARCH_RADIUS; dy <= SEARCH_RADIUS; dy++) {
+      for (int dx = -SEARCH_RADIUS; dx <= SEARCH_RADIUS; dx++) {
+        float correlation = correlate(gridWidth, gridHeight, dx, dy);
+        if (correlation > best) {
+          best = correlation;
+          bestShift = new int[] {dx, dy};
+        }
+      }
+    }
+    return bestShift;
+  }
+
+  private float correlate(int gridWidth, int gridHeight, int dx, int dy) {
+    int left = Math.max(0, -dx);
+    int right = Math.min(gridWidth, gridWidth - dx);
+    int top = Math.max(0, -dy);
+    int bottom = Math.min(gridHeight, gridHeight - dy);
+    int n = (right - left) * (bottom - top);
+    // Require most of the crop to overlap, or small overlaps win by chance.
+    if (n < gridWidth * gridHeight / 2) {
+      return -1.0f;
+    }
+    double sumA = 0;
+    double sumB = 0;
+    double sumAA = 0;
+    double sumBB = 0;
+    double sumAB = 0;
+    for (int y = top; y < bottom; y++) {
+      int offsetA = y * gridWidth;
+      int offsetB = (y + dy) * gridWidth + dx;
+      for (int x = left; x < right; x++) {
+        double a = reference[offsetA + x];
+        double b = current[offsetB + x];
+        sumA += a;
+        sumB += b;
+        sumAA += a * a;
+        sumBB += b * b;
+        sumAB += a * b;
+      }
+    }
+    double covariance = sumAB - sumA * sumB / n;
+    double varianceA = sumAA - sumA * sumA / n;
+    double varianceB = sumBB - sumB * sumB / n;
+    if (varianceA <= 0 || varianceB <= 0) {
+      return -1.0f;
+    }
+    return (float) (covariance / Math.sqrt(varianceA * varianceB));
+  }
+
+  /**
+   * @return The full resolution shift {dx, dy} within {@link #REFINE_RADIUS} of the coarse one
+   *         with the smallest mean absolute difference, sampled on every other pixel.
+   */
+  private int[] refineShift(int coarseX, int coarseY) {
+    long bestDifference = Long.MAX_VALUE;
+    int[] bestShift = {coarseX, coarseY};
+    for (int dy = coarseY - REFINE_RADIUS; dy <= coarseY + REFINE_RADIUS; dy++) {
+      for (int dx = coarseX - REFINE_RADIUS; dx <= coarseX + REFINE_RADIUS; dx++) {
+        int left = Math.max(0, -dx);
+        int right = Math.min(width, width - dx);
+        int top = Math.max(0, -dy);
+        int bottom = Math.min(height, height - dy);
+        long difference = 0;
+        int samples = 0;
+        for (int y = top; y < bottom; y += 2) {
+          int offsetA = y * width;
+          int offsetB = (y + dy) * width + dx;
+          for (int x = left; x < right; x += 2) {
+            difference += Math.abs(
+                (accumulator[offsetA + x] >> FRACTION_BITS) - (input[offsetB + x] & 0xff));
+            samples++;
+          }
+        }
+        if (samples == 0) {
+          continue;
+        }
+        // Scaled mean, so that shifts with different overlaps compare fairly.
+        difference = (difference << 8) / samples;
+        if (difference < bestDifference) {
+          bestDifference = difference;
+          bestShift[0] = dx;
+          bestShift[1] = dy;
+        }
+      }
+    }
+    return bestShift;
+  }
+
+  private void blend(int dx, int dy, float alpha) {
+    int alphaFixed = Math.round(alpha * (1 << FRACTION_BITS));
+    if (alphaFixed <= 0) {
+      return;
+    }
+    int left = Math.max(0, -dx);
+    int right = Math.min(width, width - dx);
+    int top = Math.max(0, -dy);
+    int bottom = Math.min(height, height - dy);
+    for (int y = top; y < bottom; y++) {
+      int offsetA = y * width;
+      int offsetB = (y + dy) * width + dx;
+      for (int x = left; x < right; x++) {
+        int target = (input[offsetB + x] & 0xff) << FRACTION_BITS;
+        int value = accumulator[offsetA + x];
+        accumulator[offsetA + x] = value + (((target - value) * alphaFixed) >> FRACTION_BITS);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+/**
+ * Finds specular highlights on glossy recharge cards. Saturated pixels of the framing rectangle
+ * are grouped into 4-connected blobs on a grid of every {@link #STEP}th pixel; blobs large enough
+ * to swallow part of a digit count as glare, and the share of the code band they cover tells the
+ * caller whether the frame is worth recognizing.
+ *
+ * The code band is the middle half of the framing rectangle, where the framing rectangle puts
+ * the code line. Not thread-safe: buffers are kept between calls to avoid garbage per frame.
+ */
+final class GlareDetector {
+
+  private static final int STEP = 2;
+  private static final int SATURATION_THRESHOLD = 250;
+  /** Smallest blob, in grid cells, that counts as glare rather than a bright speck. */
+  private static final int MIN_BLOB_CELLS = 8;
+
+  /** Share of the code band covered by glare above which a frame is not worth recognizing. */
+  static final float MAX_CODE_BAND_COVERAGE = 0.02f;
+
+  private int[] labels;
+  private int[] stack;
+  private byte[] row;
+
+  /**
+   * @param source Luminance of the framing rectangle.
+   * @return Share, from 0 to 1, of the code band covered by glare blobs.
+   */
+  float measureCodeBandCoverage(LuminanceSource source) {
+    int gridWidth = (source.getWidth() + STEP - 1) / STEP;
+    int gridHeight = (source.getHeight() + STEP - 1) / STEP;
+    int cells = gridWidth * gridHeight;
+    if (cells == 0) {
+      return 0.0f;
+    }
+    if (labels == null || labels.length < cells) {
+      labels = new int[cells];
+      stack = new int[cells];
+    }
+
+    // 0 = not saturated, -1 = saturated and not yet visited, n > 0 = blob n.
+    for (int gy = 0; gy < gridHeight; gy++) {
+      row = source.getRow(gy * STEP, row);
+      int offset = gy * gridWidth;
+      for (int gx = 0; gx < gridWidth; gx++) {
+        labels[offset + gx] = (row[gx * STEP] & 0xff) >= SATURATION_THRESHOLD ? -1 : 0;
+      }
+    }
+
+    int bandTop = gridHeight / 4;
+    int bandBottom = gridHeight - gridHeight / 4;
+    int bandCells = (bandBottom - bandTop) * gridWidth;
+    if (bandCells == 0) {
+      return 0.0f;
+    }
+
+    int covered = 0;
+    int blob = 0;
+    for (int start = 0; start < cells; start++) {
+      if (labels[start] != -1) {
+        continue;
+      }
+      blob++;
+      int size = 0;
+      int inBand = 0;
+      int top = 0;
+      stack[top++] = start;
+      labels[start] = blob;
+      while (top > 0) {
+        int cell = stack[--top];
+        size++;
+        int gx = cell % gridWidth;
+        int gy = cell / gridWidth;
+        if (gy >= bandTop && gy < bandBottom) {
+          inBand++;
+        }
+        if (gx > 0 && labels[cell - 1] == -1) {
+          labels[cell - 1] = blob;
+          stack[top++] = cell - 1;
+        }
+        if (gx < gridWidth - 1 && labels[cell + 1] == -1) {
+          labels[cell + 1] = blob;
+          stack[top++] = cell + 1;
+        }
+        if (gy > 0 && labels[cell - gridWidth] == -1) {
+          labels[cell - gridWidth] = blob;
+          stack[top++] = cell - gridWidth;
+        }
+        if (gy < gridHeight - 1 && labels[cell + gridWidth] == -1) {
+          labels[cell + gridWidth] = blob;
+          stack[top++] = cell + gridWidth;
+        }
+      }
+      if (size >= MIN_BLOB_CELLS) {
+        covered += inBand;
+      }
+    }
+    return (float) covered / bandCells;
+  }
+
+}
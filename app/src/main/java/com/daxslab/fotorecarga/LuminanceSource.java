@@ -16,12 +16,15 @@
  */
 package com.daxslab.fotorecarga;
 
+import android.graphics.Bitmap;
+
 /**
  * The purpose of this class hierarchy is to abstract different bitmap implementations across
  * platforms into a standard interface for requesting greyscale luminance values. The interface
- * only provides immutable methods; therefore crop and rotation create copies. This is to ensure
- * that one Reader does not modify the original luminance source and leave it in an unknown state
- * for other Readers in the chain.
+ * only provides immutable methods; therefore crop and rotation create new objects, which may be
+ * views onto the original data rather than copies. This is to ensure that one Reader does not
+ * modify the original luminance source and leave it in an unknown state for other Readers in the
+ * chain.
  *
  * The code for this class was adapted from the ZXing project: http://code.google.com/p/zxing
  */
@@ -73,6 +76,32 @@ public abstract class LuminanceSource {
     return height;
   }
 
+  /**
+   * Renders the luminance data as an opaque greyscale bitmap, suitable for handing to the OCR
+   * engine. Subclasses with direct access to their pixels may override this with a faster version.
+   *
+   * @return A new ARGB_8888 bitmap of getWidth() x getHeight() pixels.
+   */
+  public Bitmap renderCroppedGreyscaleBitmap() {
+    int width = getWidth();
+    int height = getHeight();
+    int[] pixels = new int[width * height];
+    byte[] row = new byte[width];
+
+    for (int y = 0; y < height; y++) {
+      row = getRow(y, row);
+      int outputOffset = y * width;
+      for (int x = 0; x < width; x++) {
+        int grey = row[x] & 0xff;
+        pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+      }
+    }
+
+    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    bitmap.setPixels(pixels, 0, width, 0, 0, width, height);
+    return bitmap;
+  }
+
   /**
    * @return Whether this subclass supports cropping.
    */
@@ -102,7 +131,8 @@ public abstract class LuminanceSource {
   }
 
   /**
-   * Returns a new object with rotated image data. Only callable if isRotateSupported() is true.
+   * Returns a new object with rotated image data. Implementations may keep a reference to the
+   * original data rather than a copy. Only callable if isRotateSupported() is true.
    *
    * @return A rotated version of this object.
    */
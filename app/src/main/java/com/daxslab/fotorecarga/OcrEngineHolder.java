@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * Keeps the initialized OCR engine for the whole process, so that a recreated scanner activity,
+ * e.g. after a configuration change or on returning from the dialer, finds it ready instead of
+ * initializing it again.
+ *
+ * Each activity instance holds a reference from creation to destruction. Once the last one is
+ * released the engine is kept for {@link #IDLE_TIMEOUT_MS} more, and then ended; it is ended
+ * right away if the system runs low on memory meanwhile.
+ *
+ * Main thread only.
+ */
+final class OcrEngineHolder {
+
+  private static final String TAG = OcrEngineHolder.class.getSimpleName();
+
+  /** How long an engine nobody holds is kept before it is ended. */
+  private static final long IDLE_TIMEOUT_MS = 2 * 60 * 1000L;
+
+  private static OcrEngineHolder instance;
+
+  interface Listener {
+
+    void onEngineInitialized(boolean success);
+  }
+
+  private enum State {
+    NONE,
+    INITIALIZING,
+    READY,
+    FAILED
+  }
+
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private TessBaseAPI baseApi;
+  private RecognitionDeadline recognitionDeadline;
+  private State state = State.NONE;
+  private boolean endWhenInitialized;
+  private int references;
+  private Listener listener;
+
+  private final Runnable idleRelease = new Runnable() {
+    @Override
+    public void run() {
+      Log.i(TAG, "Ending the idle OCR engine");
+      end();
+    }
+  };
+
+  static OcrEngineHolder getInstance() {
+    if (instance == null) {
+      instance = new OcrEngineHolder();
+    }
+    return instance;
+  }
+
+  private OcrEngineHolder() {
+  }
+
+  /**
+   * Starts initializing the engine ahead of its first user. Unless it is acquired meanwhile, the
+   * engine is ended again after the idle timeout.
+   */
+  void prewarm(Context context) {
+    initialize(context);
+    if (references == 0) {
+      mainHandler.removeCallbacks(idleRelease);
+      mainHandler.postDelayed(idleRelease, IDLE_TIMEOUT_MS);
+    }
+  }
+
+  /**
+   * Takes a reference to the engine, and starts initializing it if needed.
+   */
+  void acquire(Context context) {
+    references++;
+    mainHandler.removeCallbacks(idleRelease);
+    initialize(context);
+  }
+
+  /**
+   * Gives up a reference taken with {@link #acquire(Context)}. The last one starts the idle
+   * timeout.
+   */
+  void release() {
+    if (references == 0) {
+      Log.w(TAG, "Released more references than acquired");
+      return;
+    }
+    references--;
+    if (references == 0) {
+      mainHandler.postDelayed(idleRelease, IDLE_TIMEOUT_MS);
+    }
+  }
+
+  /**
+   * Ends the engine right away if nobody holds it.
+   */
+  void trimMemory() {
+    if (references == 0 && state != State.NONE) {
+      mainHandler.removeCallbacks(idleRelease);
+      end();
+    }
+  }
+
+  /**
+   * Starts initializing the engine, unless it is already initialized or being initialized. Also
+   * retries after a failed initialization.
+   */
+  void initialize(Context context) {
+    endWhenInitialized = false;
+    if (state == State.INITIALIZING || state == State.READY) {
+      return;
+    }
+    final Context appContext = context.getApplicationContext();
+    final RecognitionDeadline deadline = new RecognitionDeadline();
+    final TessBaseAPI api = new TessBaseAPI(deadline);
+    deadline.attach(api);
+    baseApi = api;
+    recognitionDeadline = deadline;
+    state = State.INITIALIZING;
+
+    final long start = SystemClock.elapsedRealtime();
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        final boolean success = new OcrEngineInitializer(appContext,
+            CaptureActivity.DEFAULT_SOURCE_LANGUAGE_CODE, TessBaseAPI.OEM_TESSERACT_ONLY)
+            .initialize(api, appContext.getFilesDir().toString());
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            Log.i(TAG, "OCR engine initialized in " + (SystemClock.elapsedRealtime() - start)
+                + " ms: " + success);
+            onInitialized(api, success);
+          }
+        });
+      }
+    }, "OcrInit").start();
+  }
+
+  private void onInitialized(TessBaseAPI api, boolean success) {
+    if (api != baseApi) {
+      return;
+    }
+    state = success ? State.READY : State.FAILED;
+    if (endWhenInitialized) {
+      end();
+      return;
+    }
+    if (listener != null) {
+      listener.onEngineInitialized(success);
+    }
+  }
+
+  /**
+   * @param listener Told when an initialization completes; may be null.
+   */
+  void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  boolean isReady() {
+    return state == State.READY;
+  }
+
+  boolean isFailed() {
+    return state == State.FAILED;
+  }
+
+  TessBaseAPI getBaseApi() {
+    return baseApi;
+  }
+
+  RecognitionDeadline getRecognitionDeadline() {
+    return recognitionDeadline;
+  }
+
+  /**
+   * Ends the engine, or has it ended as soon as its initialization completes. The engine is ended
+   * on a background thread, once the recognition in progress, if any, has stopped.
+   */
+  private void end() {
+    if (state == State.INITIALIZING) {
+      endWhenInitialized = true;
+      return;
+    }
+    final TessBaseAPI api = baseApi;
+    if (api != null) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (api) {
+            api.end();
+          }
+        }
+      }, "OcrEnd").start();
+    }
+    baseApi = null;
+    recognitionDeadline = null;
+    state = State.NONE;
+    endWhenInitialized = false;
+  }
+
+}
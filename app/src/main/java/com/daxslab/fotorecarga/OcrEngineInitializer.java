@@ -24,79 +24,50 @@ import java.io.OutputStream;
 
 import com.googlecode.tesseract.android.TessBaseAPI;
 
-import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.res.AssetManager;
-import android.os.AsyncTask;
 import android.util.Log;
 
 /**
- * Installs the language data required for OCR, and initializes the OCR engine using a background 
- * thread.
+ * Installs the language data required for OCR, and initializes the OCR engine. Blocks, so it is
+ * run on a background thread by the {@link OcrEngineHolder}.
  */
-final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
-  private static final String TAG = OcrInitAsyncTask.class.getSimpleName();
+final class OcrEngineInitializer {
+  private static final String TAG = OcrEngineInitializer.class.getSimpleName();
 
-  private CaptureActivity activity;
-  private Context context;
-  private TessBaseAPI baseApi;
-  private ProgressDialog dialog;
-  private ProgressDialog indeterminateDialog;
+  private final Context context;
   private final String languageCode;
-  private int ocrEngineMode;
+  private final int ocrEngineMode;
 
   /**
-   * AsyncTask to asynchronously download data and initialize Tesseract.
-   * 
-   * @param activity
-   *          The calling activity
-   * @param baseApi
-   *          API to the OCR engine
-   * @param dialog
-   *          Dialog box with thermometer progress indicator
-   * @param indeterminateDialog
-   *          Dialog box with indeterminate progress indicator
+   * @param context
+   *          Context to read the application assets with
    * @param languageCode
    *          ISO 639-2 OCR language code
    * @param ocrEngineMode
    *          Whether to use Tesseract, Cube, or both
    */
-  OcrInitAsyncTask(CaptureActivity activity, TessBaseAPI baseApi, ProgressDialog dialog, 
-      ProgressDialog indeterminateDialog, String languageCode, int ocrEngineMode) {
-    this.activity = activity;
-    this.context = activity.getBaseContext();
-    this.baseApi = baseApi;
-    this.dialog = dialog;
-    this.indeterminateDialog = indeterminateDialog;
+  OcrEngineInitializer(Context context, String languageCode, int ocrEngineMode) {
+    this.context = context;
     this.languageCode = languageCode;
     this.ocrEngineMode = ocrEngineMode;
   }
 
-  @Override
-  protected void onPreExecute() {
-    super.onPreExecute();
-    dialog.setTitle("Please wait");
-    dialog.setMessage("Checking for data installation...");
-    dialog.setIndeterminate(false);
-    dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-    dialog.setCancelable(false);
-    dialog.show();
-  }
-
   /**
-   * In background thread, perform required setup, and request initialization of
-   * the OCR engine.
+   * Performs required setup, and requests initialization of the OCR engine.
    * 
-   * @param params
-   *          [0] Pathname for the directory for storing language data files to the SD card
+   * @param baseApi
+   *          API to the OCR engine
+   * @param destinationDirBase
+   *          Pathname for the directory for storing language data files, minus the "tessdata"
+   *          subdirectory
+   * @return Whether the engine is ready to recognize
    */
-  protected Boolean doInBackground(String... params) {
+  boolean initialize(TessBaseAPI baseApi, String destinationDirBase) {
 
     String destinationFilenameBase = languageCode + ".traineddata";
 
     // Check for, and create if necessary, folder to hold model data
-    String destinationDirBase = params[0]; // The storage directory, minus the
-                                           // "tessdata" subdirectory
     File tessdataDir = new File(destinationDirBase + File.separator + "tessdata");
     if (!tessdataDir.exists() && !tessdataDir.mkdirs()) {
       Log.e(TAG, "Couldn't make directory " + tessdataDir);
@@ -150,13 +121,6 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
       installSuccess = true;
     }
 
-    // Dismiss the progress dialog box, revealing the indeterminate dialog box behind it
-    try {
-      dialog.dismiss();
-    } catch (IllegalArgumentException e) {
-      // Catch "View not attached to window manager" error, and continue
-    }
-
     // Initializlang
     try {
       if (baseApi.init(destinationDirBase, languageCode, ocrEngineMode)) {
@@ -225,40 +189,4 @@ final class OcrInitAsyncTask extends AsyncTask<String, String, Boolean> {
     }
     return true;
   }
-
-
-
-
-  /**
-   * Update the dialog box with the latest incremental progress.
-   * 
-   * @param message
-   *          [0] Text to be displayed
-   * @param message
-   *          [1] Numeric value for the progress
-   */
-  @Override
-  protected void onProgressUpdate(String... message) {
-    super.onProgressUpdate(message);
-    int percentComplete = 0;
-
-    percentComplete = Integer.parseInt(message[1]);
-    dialog.setMessage(message[0]);
-    dialog.setProgress(percentComplete);
-    dialog.show();
-  }
-
-  @Override
-  protected void onPostExecute(Boolean result) {
-    super.onPostExecute(result);
-    
-    try {    	
-      indeterminateDialog.dismiss();
-    } catch (IllegalArgumentException e) {
-      // Catch "View not attached to window manager" error, and continue
-    }
-
-    activity.resumeOCR();
-
-  }
-}
\ No newline at end of file
+}
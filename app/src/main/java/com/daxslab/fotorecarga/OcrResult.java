@@ -15,14 +15,11 @@
  */
 package com.daxslab.fotorecarga;
 
-import java.util.List;
-
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Paint.Style;
 import android.graphics.Point;
-import android.graphics.Rect;
 
 /**
  * Encapsulates the result of OCR.
@@ -34,14 +31,15 @@ public class OcrResult {
   private int[] wordConfidences;
   private int meanConfidence;
 
-  private List<Rect> regionBoundingBoxes;
-  private List<Rect> textlineBoundingBoxes;
-  private List<Rect> wordBoundingBoxes;
-  private List<Rect> stripBoundingBoxes;  
-  private List<Rect> characterBoundingBoxes;
+  private BoxArray regionBoundingBoxes;
+  private BoxArray textlineBoundingBoxes;
+  private BoxArray wordBoundingBoxes;
+  private BoxArray stripBoundingBoxes;  
+  private BoxArray characterBoundingBoxes;
 
   private long timestamp;
   private long recognitionTimeRequired;
+  private boolean cached;
 
   private Paint paint;
   
@@ -49,11 +47,11 @@ public class OcrResult {
                    String text,
                    int[] wordConfidences,
                    int meanConfidence,
-                   List<Rect> regionBoundingBoxes,
-                   List<Rect> textlineBoundingBoxes,
-                   List<Rect> wordBoundingBoxes,
-                   List<Rect> stripBoundingBoxes,
-                   List<Rect> characterBoundingBoxes,
+                   BoxArray regionBoundingBoxes,
+                   BoxArray textlineBoundingBoxes,
+                   BoxArray wordBoundingBoxes,
+                   BoxArray stripBoundingBoxes,
+                   BoxArray characterBoundingBoxes,
                    long recognitionTimeRequired) {
     this.bitmap = bitmap;
     this.text = text;
@@ -88,8 +86,8 @@ public class OcrResult {
       paint.setColor(0xFF00CCFF);
       paint.setStyle(Style.STROKE);
       paint.setStrokeWidth(2);
-      Rect r = wordBoundingBoxes.get(i);
-      canvas.drawRect(r, paint);
+      canvas.drawRect(wordBoundingBoxes.left(i), wordBoundingBoxes.top(i),
+          wordBoundingBoxes.right(i), wordBoundingBoxes.bottom(i), paint);
     }    
     
 //    // Draw bounding boxes around each character
@@ -98,8 +96,8 @@ public class OcrResult {
 //      paint.setColor(0xFF00FF00);
 //      paint.setStyle(Style.STROKE);
 //      paint.setStrokeWidth(3);
-//      Rect r = characterBoundingBoxes.get(i);
-//      canvas.drawRect(r, paint);
+//      canvas.drawRect(characterBoundingBoxes.left(i), characterBoundingBoxes.top(i),
+//          characterBoundingBoxes.right(i), characterBoundingBoxes.bottom(i), paint);
 //    }
     
     return bitmap;
@@ -125,29 +123,36 @@ public class OcrResult {
     return new Point(bitmap.getWidth(), bitmap.getHeight()); 
   }
   
-  public List<Rect> getRegionBoundingBoxes() {
+  public BoxArray getRegionBoundingBoxes() {
     return regionBoundingBoxes;
   }
   
-  public List<Rect> getTextlineBoundingBoxes() {
+  public BoxArray getTextlineBoundingBoxes() {
     return textlineBoundingBoxes;
   }
   
-  public List<Rect> getWordBoundingBoxes() {
+  public BoxArray getWordBoundingBoxes() {
     return wordBoundingBoxes;
   }
   
-  public List<Rect> getStripBoundingBoxes() {
+  public BoxArray getStripBoundingBoxes() {
   	return stripBoundingBoxes;
   }
   
-  public List<Rect> getCharacterBoundingBoxes() {
+  public BoxArray getCharacterBoundingBoxes() {
     return characterBoundingBoxes;
   }
   
   public long getTimestamp() {
     return timestamp;
   }
+
+  /**
+   * @return Whether this result was taken from an earlier, similar crop instead of recognized.
+   */
+  public boolean isCached() {
+    return cached;
+  }
   
   public void setBitmap(Bitmap bitmap) {
     this.bitmap = bitmap;
@@ -157,6 +162,10 @@ public class OcrResult {
     this.text = text;
   }
 
+  public void setCached(boolean cached) {
+    this.cached = cached;
+  }
+
   public void setWordConfidences(int[] wordConfidences) {
     this.wordConfidences = wordConfidences;
   }
@@ -169,23 +178,23 @@ public class OcrResult {
     this.recognitionTimeRequired = recognitionTimeRequired;
   }
   
-  public void setRegionBoundingBoxes(List<Rect> regionBoundingBoxes) {
+  public void setRegionBoundingBoxes(BoxArray regionBoundingBoxes) {
     this.regionBoundingBoxes = regionBoundingBoxes;
   }
   
-  public void setTextlineBoundingBoxes(List<Rect> textlineBoundingBoxes) {
+  public void setTextlineBoundingBoxes(BoxArray textlineBoundingBoxes) {
     this.textlineBoundingBoxes = textlineBoundingBoxes;
   }
 
-  public void setWordBoundingBoxes(List<Rect> wordBoundingBoxes) {
+  public void setWordBoundingBoxes(BoxArray wordBoundingBoxes) {
     this.wordBoundingBoxes = wordBoundingBoxes;
   }
   
-  public void setStripBoundingBoxes(List<Rect> stripBoundingBoxes) {
+  public void setStripBoundingBoxes(BoxArray stripBoundingBoxes) {
   	this.stripBoundingBoxes = stripBoundingBoxes;
   }
 
-  public void setCharacterBoundingBoxes(List<Rect> characterBoundingBoxes) {
+  public void setCharacterBoundingBoxes(BoxArray characterBoundingBoxes) {
     this.characterBoundingBoxes = characterBoundingBoxes;
   }
   
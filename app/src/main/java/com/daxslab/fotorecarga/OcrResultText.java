@@ -15,10 +15,7 @@
  */
 package com.daxslab.fotorecarga;
 
-import java.util.List;
-
 import android.graphics.Point;
-import android.graphics.Rect;
 
 /**
  * Encapsulates text and its character/word coordinates resulting from OCR.
@@ -29,21 +26,21 @@ public final class OcrResultText {
   private final int[] wordConfidences;
   private final int meanConfidence;
   private final Point bitmapDimensions;
-  private final List<Rect> regionBoundingBoxes;
-  private final List<Rect> textlineBoundingBoxes;
-  private final List<Rect> stripBoundingBoxes;
-  private final List<Rect> wordBoundingBoxes;
-  private final List<Rect> characterBoundingBoxes;
+  private final BoxArray regionBoundingBoxes;
+  private final BoxArray textlineBoundingBoxes;
+  private final BoxArray stripBoundingBoxes;
+  private final BoxArray wordBoundingBoxes;
+  private final BoxArray characterBoundingBoxes;
   
   public OcrResultText(String text,
                    int[] wordConfidences,
                    int meanConfidence,
                    Point bitmapDimensions,
-                   List<Rect> regionBoundingBoxes,
-                   List<Rect> textlineBoundingBoxes,
-                   List<Rect> stripBoundingBoxes,
-                   List<Rect> wordBoundingBoxes,
-                   List<Rect> characterBoundingBoxes) {
+                   BoxArray regionBoundingBoxes,
+                   BoxArray textlineBoundingBoxes,
+                   BoxArray stripBoundingBoxes,
+                   BoxArray wordBoundingBoxes,
+                   BoxArray characterBoundingBoxes) {
     this.text = text;
     this.wordConfidences = wordConfidences;
     this.meanConfidence = meanConfidence;
@@ -71,23 +68,23 @@ public final class OcrResultText {
     return meanConfidence;
   }
   
-  public List<Rect> getRegionBoundingBoxes() {
+  public BoxArray getRegionBoundingBoxes() {
     return regionBoundingBoxes;
   }
   
-  public List<Rect> getTextlineBoundingBoxes() {
+  public BoxArray getTextlineBoundingBoxes() {
     return textlineBoundingBoxes;
   }
   
-  public List<Rect> getStripBoundingBoxes() {
+  public BoxArray getStripBoundingBoxes() {
   	return stripBoundingBoxes;
   }
   
-  public List<Rect> getWordBoundingBoxes() {
+  public BoxArray getWordBoundingBoxes() {
     return wordBoundingBoxes;
   }
   
-  public List<Rect> getCharacterBoundingBoxes() {
+  public BoxArray getCharacterBoundingBoxes() {
     return characterBoundingBoxes;
   }
   
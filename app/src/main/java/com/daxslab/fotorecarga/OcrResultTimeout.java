@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.daxslab.fotorecarga;
+
+/**
+ * Class to hold metadata for OCR requests that were stopped for running past their time budget.
+ */
+public final class OcrResultTimeout {
+  private final long timeRequired;
+  private final long budget;
+  private final long timestamp;
+  
+  OcrResultTimeout(long timeRequired, long budget) {
+    this.timeRequired = timeRequired;
+    this.budget = budget;
+    this.timestamp = System.currentTimeMillis();
+  }
+  
+  public long getTimeRequired() {
+    return timeRequired;
+  }
+  
+  public long getBudget() {
+    return budget;
+  }
+  
+  public long getTimestamp() {
+    return timestamp;
+  }
+  
+  @Override
+  public String toString() {
+    return timeRequired + " " + budget + " " + timestamp;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Keeps recognition latency near {@link #TARGET_LATENCY_MS} through long sessions. It watches
+ * the time each frame takes to recognize (as a moving average), the thermal status reported by
+ * the system (Android 10 and later) and the battery level, and picks one of a few economy
+ * levels. Each level sets how long to wait between continuous decodes, how much preprocessing to
+ * do, and how small a preview to open the camera with.
+ *
+ * Latency moves the level one step at a time and at most every {@link #MIN_LEVEL_CHANGE_MS};
+ * heat and a low battery set a floor under it.
+ */
+final class PerformanceGovernor {
+
+  private static final String TAG = PerformanceGovernor.class.getSimpleName();
+
+  /** Amount of preprocessing done on a frame before recognition. */
+  enum Preprocessing {
+    FULL,    // glare detection and multi-frame fusion in low light
+    REDUCED, // glare detection only
+    MINIMAL, // neither
+  }
+
+  private static final long TARGET_LATENCY_MS = 800L;
+  /** Weight of the newest sample in the recognition time average. */
+  private static final float LATENCY_SMOOTHING = 0.2f;
+  private static final long MIN_LEVEL_CHANGE_MS = 3000L;
+  private static final long BATTERY_CHECK_INTERVAL_MS = 30000L;
+
+  private static final int MAX_LEVEL = 3;
+  private static final long[] FRAME_INTERVALS_MS = {0L, 150L, 400L, 800L};
+  private static final Preprocessing[] PREPROCESSING = {
+      Preprocessing.FULL, Preprocessing.FULL, Preprocessing.REDUCED, Preprocessing.MINIMAL
+  };
+  private static final int[] TARGET_DIGIT_HEIGHTS = {24, 24, 20, 18};
+
+  private final Context context;
+  private final PowerManager powerManager;
+  private Object thermalListener;
+  private volatile int thermalFloor;
+  private int batteryFloor;
+  private long lastBatteryCheck;
+  private float averageLatency = -1.0f;
+  private int latencyLevel;
+  private long lastLevelChange;
+  private volatile int level;
+
+  PerformanceGovernor(Context context) {
+    this.context = context;
+    this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+  }
+
+  void start() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+      startThermalMonitoring();
+    }
+    lastBatteryCheck = 0L;
+    updateLevel();
+  }
+
+  void stop() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && thermalListener != null) {
+      powerManager.removeThermalStatusListener(
+          (PowerManager.OnThermalStatusChangedListener) thermalListener);
+      thermalListener = null;
+    }
+  }
+
+  @TargetApi(Build.VERSION_CODES.Q)
+  private void startThermalMonitoring() {
+    PowerManager.OnThermalStatusChangedListener listener =
+        new PowerManager.OnThermalStatusChangedListener() {
+          @Override
+          public void onThermalStatusChanged(int status) {
+            thermalFloor = toThermalFloor(status);
+            Log.i(TAG, "Thermal status " + status + "; economy level at least " + thermalFloor);
+          }
+        };
+    thermalFloor = toThermalFloor(powerManager.getCurrentThermalStatus());
+    powerManager.addThermalStatusListener(listener);
+    thermalListener = listener;
+  }
+
+  @TargetApi(Build.VERSION_CODES.Q)
+  private static int toThermalFloor(int status) {
+    if (status >= PowerManager.THERMAL_STATUS_SEVERE) {
+      return MAX_LEVEL;
+    }
+    if (status >= PowerManager.THERMAL_STATUS_MODERATE) {
+      return 2;
+    }
+    if (status >= PowerManager.THERMAL_STATUS_LIGHT) {
+      return 1;
+    }
+    return 0;
+  }
+
+  /**
+   * @param recognitionTimeMs Time spent recognizing the last frame.
+   */
+  synchronized void onFrameRecognized(long recognitionTimeMs) {
+    if (averageLatency < 0.0f) {
+      averageLatency = recognitionTimeMs;
+    } else {
+      averageLatency += LATENCY_SMOOTHING * (recognitionTimeMs - averageLatency);
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastLevelChange >= MIN_LEVEL_CHANGE_MS) {
+      if (averageLatency > TARGET_LATENCY_MS * 1.25f && latencyLevel < MAX_LEVEL) {
+        latencyLevel++;
+        lastLevelChange = now;
+      } else if (averageLatency < TARGET_LATENCY_MS * 0.6f && latencyLevel > 0) {
+        latencyLevel--;
+        lastLevelChange = now;
+      }
+    }
+    updateLevel();
+  }
+
+  private synchronized void updateLevel() {
+    long now = System.currentTimeMillis();
+    if (now - lastBatteryCheck >= BATTERY_CHECK_INTERVAL_MS) {
+      lastBatteryCheck = now;
+      batteryFloor = readBatteryFloor();
+    }
+    int newLevel = Math.max(latencyLevel, Math.max(thermalFloor, batteryFloor));
+    if (newLevel != level) {
+      Log.i(TAG, "Economy level " + level + " -> " + newLevel + " (average recognition time "
+          + averageLatency + " ms, thermal floor " + thermalFloor + ", battery floor "
+          + batteryFloor + ')');
+      level = newLevel;
+    }
+  }
+
+  private int readBatteryFloor() {
+    // Sticky broadcast: no receiver is actually registered.
+    Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (battery == null) {
+      return 0;
+    }
+    int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+    if (status == BatteryManager.BATTERY_STATUS_CHARGING
+        || status == BatteryManager.BATTERY_STATUS_FULL) {
+      return 0;
+    }
+    int batteryLevel = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+    int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+    if (batteryLevel < 0 || scale <= 0) {
+      return 0;
+    }
+    int percent = batteryLevel * 100 / scale;
+    return percent < 15 ? 2 : percent < 30 ? 1 : 0;
+  }
+
+  /**
+   * @return Time to wait after a continuous result before decoding the next frame.
+   */
+  long getFrameIntervalMs() {
+    return FRAME_INTERVALS_MS[level];
+  }
+
+  Preprocessing getPreprocessing() {
+    return PREPROCESSING[level];
+  }
+
+  /**
+   * @return Digit height, in preview pixels, to choose the preview size for when the camera is
+   *         next opened.
+   */
+  int getTargetDigitHeight() {
+    return TARGET_DIGIT_HEIGHTS[level];
+  }
+
+}
@@ -26,6 +26,10 @@ import android.graphics.Bitmap;
  * It works for any pixel format where the Y channel is planar and appears first, including
  * YCbCr_420_SP and YCbCr_422_SP.
  *
+ * Crops, rotations and horizontal mirroring never copy or modify the camera buffer. Each source is
+ * a view that maps a pixel (x, y) to the offset origin + x * xStep + y * yStep in the underlying
+ * data, so the camera is free to reuse the buffer once the decoder is done with it.
+ *
  * The code for this class was adapted from the ZXing project: http://code.google.com/p/zxing
  */
 public final class PlanarYUVLuminanceSource extends LuminanceSource {
@@ -33,8 +37,9 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
   private final byte[] yuvData;
   private final int dataWidth;
   private final int dataHeight;
-  private final int left;
-  private final int top;
+  private final int origin;
+  private final int xStep;
+  private final int yStep;
 
   public PlanarYUVLuminanceSource(byte[] yuvData,
                                   int dataWidth,
@@ -53,11 +58,31 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     this.yuvData = yuvData;
     this.dataWidth = dataWidth;
     this.dataHeight = dataHeight;
-    this.left = left;
-    this.top = top;
     if (reverseHorizontal) {
-      reverseHorizontal(width, height);
+      this.origin = top * dataWidth + left + width - 1;
+      this.xStep = -1;
+    } else {
+      this.origin = top * dataWidth + left;
+      this.xStep = 1;
     }
+    this.yStep = dataWidth;
+  }
+
+  private PlanarYUVLuminanceSource(byte[] yuvData,
+                                   int dataWidth,
+                                   int dataHeight,
+                                   int origin,
+                                   int xStep,
+                                   int yStep,
+                                   int width,
+                                   int height) {
+    super(width, height);
+    this.yuvData = yuvData;
+    this.dataWidth = dataWidth;
+    this.dataHeight = dataHeight;
+    this.origin = origin;
+    this.xStep = xStep;
+    this.yStep = yStep;
   }
 
   @Override
@@ -69,8 +94,7 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     if (row == null || row.length < width) {
       row = new byte[width];
     }
-    int offset = (y + top) * dataWidth + left;
-    System.arraycopy(yuvData, offset, row, 0, width);
+    copyRow(origin + y * yStep, row, 0, width);
     return row;
   }
 
@@ -81,26 +105,24 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
     // If the caller asks for the entire underlying image, save the copy and give them the
     // original data. The docs specifically warn that result.length must be ignored.
-    if (width == dataWidth && height == dataHeight) {
+    if (isUntransformed() && width == dataWidth && height == dataHeight) {
       return yuvData;
     }
 
     int area = width * height;
     byte[] matrix = new byte[area];
-    int inputOffset = top * dataWidth + left;
 
-    // If the width matches the full width of the underlying data, perform a single copy.
-    if (width == dataWidth) {
-      System.arraycopy(yuvData, inputOffset, matrix, 0, area);
+    // If the view covers full rows of the underlying data, perform a single copy.
+    if (isUntransformed() && width == dataWidth) {
+      System.arraycopy(yuvData, origin, matrix, 0, area);
       return matrix;
     }
 
-    // Otherwise copy one cropped row at a time.
-    byte[] yuv = yuvData;
+    // Otherwise copy one mapped row at a time.
+    int inputOffset = origin;
     for (int y = 0; y < height; y++) {
-      int outputOffset = y * width;
-      System.arraycopy(yuv, inputOffset, matrix, outputOffset, width);
-      inputOffset += dataWidth;
+      copyRow(inputOffset, matrix, y * width, width);
+      inputOffset += yStep;
     }
     return matrix;
   }
@@ -112,30 +134,93 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
 
   @Override
   public LuminanceSource crop(int left, int top, int width, int height) {
+    if (left < 0 || top < 0 || left + width > getWidth() || top + height > getHeight()) {
+      throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+    }
     return new PlanarYUVLuminanceSource(yuvData,
                                         dataWidth,
                                         dataHeight,
-                                        this.left + left,
-                                        this.top + top,
+                                        origin + left * xStep + top * yStep,
+                                        xStep,
+                                        yStep,
                                         width,
-                                        height,
-                                        false);
+                                        height);
+  }
+
+  @Override
+  public boolean isRotateSupported() {
+    return true;
   }
 
+  /**
+   * Returns a view of this source rotated by 90 degrees counter-clockwise: the right-most column
+   * becomes the top row. No pixel data is copied.
+   */
+  @Override
+  public LuminanceSource rotateCounterClockwise() {
+    int width = getWidth();
+    return new PlanarYUVLuminanceSource(yuvData,
+                                        dataWidth,
+                                        dataHeight,
+                                        origin + (width - 1) * xStep,
+                                        yStep,
+                                        -xStep,
+                                        getHeight(),
+                                        width);
+  }
+
+  /**
+   * Returns a view of this source rotated clockwise by the given angle, which must be a multiple
+   * of 90 degrees. This is the rotation reported by the camera configuration to bring preview
+   * frames upright. No pixel data is copied.
+   *
+   * @param cwDegrees Clockwise rotation, in degrees.
+   * @return A rotated view of this source.
+   */
+  public PlanarYUVLuminanceSource rotate(int cwDegrees) {
+    if (cwDegrees % 90 != 0) {
+      throw new IllegalArgumentException("Bad rotation: " + cwDegrees);
+    }
+    int ccwQuarterTurns = ((360 - cwDegrees % 360) % 360) / 90;
+    PlanarYUVLuminanceSource rotated = this;
+    for (int i = 0; i < ccwQuarterTurns; i++) {
+      rotated = (PlanarYUVLuminanceSource) rotated.rotateCounterClockwise();
+    }
+    return rotated;
+  }
+
+  /**
+   * Returns a view of this source mirrored around its vertical axis, as needed for front-facing
+   * cameras. No pixel data is copied.
+   */
+  public PlanarYUVLuminanceSource mirrorHorizontal() {
+    return new PlanarYUVLuminanceSource(yuvData,
+                                        dataWidth,
+                                        dataHeight,
+                                        origin + (getWidth() - 1) * xStep,
+                                        -xStep,
+                                        yStep,
+                                        getWidth(),
+                                        getHeight());
+  }
+
+  @Override
   public Bitmap renderCroppedGreyscaleBitmap() {
     int width = getWidth();
     int height = getHeight();
     int[] pixels = new int[width * height];
     byte[] yuv = yuvData;
-    int inputOffset = top * dataWidth + left;
+    int rowStart = origin;
 
     for (int y = 0; y < height; y++) {
       int outputOffset = y * width;
+      int inputOffset = rowStart;
       for (int x = 0; x < width; x++) {
-        int grey = yuv[inputOffset + x] & 0xff;
+        int grey = yuv[inputOffset] & 0xff;
         pixels[outputOffset + x] = 0xFF000000 | (grey * 0x00010101);
+        inputOffset += xStep;
       }
-      inputOffset += dataWidth;
+      rowStart += yStep;
     }
 
     Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
@@ -143,15 +228,22 @@ public final class PlanarYUVLuminanceSource extends LuminanceSource {
     return bitmap;
   }
 
-  private void reverseHorizontal(int width, int height) {
-    byte[] yuvData = this.yuvData;
-    for (int y = 0, rowStart = top * dataWidth + left; y < height; y++, rowStart += dataWidth) {
-      int middle = rowStart + width / 2;
-      for (int x1 = rowStart, x2 = rowStart + width - 1; x1 < middle; x1++, x2--) {
-        byte temp = yuvData[x1];
-        yuvData[x1] = yuvData[x2];
-        yuvData[x2] = temp;
-      }
+  private boolean isUntransformed() {
+    return xStep == 1 && yStep == dataWidth;
+  }
+
+  /**
+   * Copies one mapped row, starting at the given offset of the underlying data, into the output.
+   */
+  private void copyRow(int inputOffset, byte[] output, int outputOffset, int width) {
+    if (xStep == 1) {
+      System.arraycopy(yuvData, inputOffset, output, outputOffset, width);
+      return;
+    }
+    byte[] yuv = yuvData;
+    for (int x = 0; x < width; x++) {
+      output[outputOffset + x] = yuv[inputOffset];
+      inputOffset += xStep;
     }
   }
 
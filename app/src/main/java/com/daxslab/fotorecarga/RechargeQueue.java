@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.app.Activity;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Batch recharge session: recognized codes are queued while scanning goes on, and submitted one
+ * at a time, in the order they were read, through a {@link RechargeSubmitter}. A code is queued
+ * only once per session, so a card left in front of the camera is not recharged twice.
+ *
+ * The carrier handles a single USSD session at a time, so the next code is submitted once the
+ * answer for the previous one has come in. A code handed to the phone app takes the app to the
+ * background; the queue then waits until {@link #resume()}.
+ *
+ * Main thread only.
+ */
+final class RechargeQueue {
+
+  private static final String TAG = RechargeQueue.class.getSimpleName();
+
+  enum Status {
+    QUEUED,
+    SUBMITTING,
+    ANSWERED,
+    FAILED,
+    DIALED
+  }
+
+  /** A code and where it is in the session. */
+  static final class Entry {
+    final String code;
+    Status status = Status.QUEUED;
+    CharSequence response;
+
+    Entry(String code) {
+      this.code = code;
+    }
+  }
+
+  interface Listener {
+
+    /** A code was queued, or the status of one changed. */
+    void onQueueChanged();
+  }
+
+  // Every code of the session, in the order it was read
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+  private final RechargeSubmitter submitter;
+  private final Listener listener;
+  private Entry submitting;
+  private boolean paused;
+  private long sessionStart;
+  private int completed;
+
+  RechargeQueue(Activity activity, Listener listener) {
+    this.listener = listener;
+    submitter = new RechargeSubmitter(activity, submitterCallback);
+  }
+
+  /**
+   * @return Whether the code was queued; false if it was already read in this session.
+   */
+  boolean add(String code) {
+    if (entries.containsKey(code)) {
+      return false;
+    }
+    if (entries.isEmpty()) {
+      sessionStart = SystemClock.elapsedRealtime();
+    }
+    entries.put(code, new Entry(code));
+    listener.onQueueChanged();
+    submitNext();
+    return true;
+  }
+
+  /**
+   * Stops submitting codes. A request already sent still gets its answer.
+   */
+  void pause() {
+    paused = true;
+  }
+
+  void resume() {
+    paused = false;
+    submitNext();
+  }
+
+  /**
+   * Forgets every code and starts a new session.
+   */
+  void clear() {
+    entries.clear();
+    completed = 0;
+    listener.onQueueChanged();
+  }
+
+  private void submitNext() {
+    if (paused || submitting != null) {
+      return;
+    }
+    for (Entry entry : entries.values()) {
+      if (entry.status == Status.QUEUED) {
+        submitting = entry;
+        entry.status = Status.SUBMITTING;
+        listener.onQueueChanged();
+        submitter.submit(entry.code);
+        return;
+      }
+    }
+  }
+
+  private void onSubmitted(String code, Status status, CharSequence response) {
+    Entry entry = submitting;
+    if (entry == null || !entry.code.equals(code)) {
+      return;
+    }
+    submitting = null;
+    // Unless the session was cleared while the request was in flight
+    if (entries.get(code) == entry) {
+      Log.d(TAG, "Code " + status);
+      entry.status = status;
+      entry.response = response;
+      completed++;
+      listener.onQueueChanged();
+    }
+    submitNext();
+  }
+
+  private final RechargeSubmitter.Callback submitterCallback = new RechargeSubmitter.Callback() {
+    @Override
+    public void onRechargeAnswered(String code, CharSequence response) {
+      onSubmitted(code, Status.ANSWERED, response);
+    }
+
+    @Override
+    public void onRechargeFailed(String code) {
+      onSubmitted(code, Status.FAILED, null);
+    }
+
+    @Override
+    public void onRechargeDialed(String code) {
+      // The app goes to the background; the next code waits until the user comes back.
+      paused = true;
+      onSubmitted(code, Status.DIALED, null);
+    }
+  };
+
+  /**
+   * @return The codes waiting to be submitted, including the one being submitted.
+   */
+  int getPendingCount() {
+    int pending = 0;
+    for (Entry entry : entries.values()) {
+      if (entry.status == Status.QUEUED || entry.status == Status.SUBMITTING) {
+        pending++;
+      }
+    }
+    return pending;
+  }
+
+  int getCompletedCount() {
+    return completed;
+  }
+
+  /**
+   * @return Codes submitted per minute since the first code of the session was read.
+   */
+  float getCardsPerMinute() {
+    long elapsed = SystemClock.elapsedRealtime() - sessionStart;
+    if (completed == 0 || elapsed <= 0) {
+      return 0.0f;
+    }
+    return completed * 60000.0f / elapsed;
+  }
+
+  /**
+   * @return The newest entries, newest first.
+   */
+  List<Entry> getRecentEntries(int count) {
+    List<Entry> all = new ArrayList<>(entries.values());
+    List<Entry> recent = new ArrayList<>(count);
+    for (int i = all.size() - 1; i >= 0 && recent.size() < count; i--) {
+      recent.add(all.get(i));
+    }
+    return recent;
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+/**
+ * Submits a recharge code to the carrier as a USSD request.
+ *
+ * From Android 8.0 the request is sent from within the app, and the network's answer comes back
+ * asynchronously, so the scanner stays in the foreground with its camera running and the next
+ * card can be scanned right away. On older versions, or when the device cannot send USSD
+ * requests itself, the code is dialed through the phone app instead.
+ *
+ * Every outcome is recorded in the {@link CodeJournal}. The caller must hold the CALL_PHONE
+ * permission. Callbacks are called on the main thread.
+ */
+final class RechargeSubmitter {
+
+  private static final String TAG = RechargeSubmitter.class.getSimpleName();
+
+  private static final String USSD_PREFIX = "*662*";
+  private static final String USSD_SUFFIX = "#";
+
+  interface Callback {
+
+    /** The network answered the request, e.g. with the new balance. */
+    void onRechargeAnswered(String code, CharSequence response);
+
+    /** The network rejected the request or could not be reached. */
+    void onRechargeFailed(String code);
+
+    /** The code was handed to the phone app, which takes the app to the background. */
+    void onRechargeDialed(String code);
+  }
+
+  private final Activity activity;
+  private final Callback callback;
+  private final CodeJournal journal;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  RechargeSubmitter(Activity activity, Callback callback) {
+    this.activity = activity;
+    this.callback = callback;
+    journal = CodeJournal.getInstance(activity);
+  }
+
+  /**
+   * @param code The recharge code, digits only
+   */
+  void submit(String code) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+      TelephonyManager telephonyManager =
+          (TelephonyManager) activity.getSystemService(Context.TELEPHONY_SERVICE);
+      if (telephonyManager != null && sendUssdRequest(telephonyManager, code)) {
+        return;
+      }
+    }
+    dial(code);
+  }
+
+  /**
+   * @return Whether the request was sent; its answer goes to the callback.
+   */
+  @TargetApi(Build.VERSION_CODES.O)
+  private boolean sendUssdRequest(TelephonyManager telephonyManager, final String code) {
+    try {
+      telephonyManager.sendUssdRequest(USSD_PREFIX + code + USSD_SUFFIX,
+          new TelephonyManager.UssdResponseCallback() {
+            @Override
+            public void onReceiveUssdResponse(TelephonyManager telephonyManager, String request,
+                                              CharSequence response) {
+              Log.i(TAG, "USSD response: " + response);
+              journal.record(code, CodeJournal.Outcome.ANSWERED);
+              callback.onRechargeAnswered(code, response);
+            }
+
+            @Override
+            public void onReceiveUssdResponseFailed(TelephonyManager telephonyManager,
+                                                    String request, int failureCode) {
+              Log.w(TAG, "USSD request failed with code " + failureCode);
+              if (failureCode == TelephonyManager.USSD_ERROR_SERVICE_UNAVAIL) {
+                // The device or carrier does not support it; the dialer may still get through.
+                dial(code);
+              } else {
+                journal.record(code, CodeJournal.Outcome.FAILED);
+                callback.onRechargeFailed(code);
+              }
+            }
+          }, mainHandler);
+      return true;
+    } catch (SecurityException | IllegalStateException e) {
+      Log.w(TAG, "Could not send the USSD request", e);
+      return false;
+    }
+  }
+
+  private void dial(String code) {
+    activity.startActivity(new Intent(Intent.ACTION_CALL,
+        Uri.parse("tel:" + USSD_PREFIX + code + Uri.encode(USSD_SUFFIX))));
+    journal.record(code, CodeJournal.Outcome.DIALED);
+    callback.onRechargeDialed(code);
+  }
+
+}
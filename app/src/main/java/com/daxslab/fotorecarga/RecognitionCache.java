@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Remembers the last few recognitions by a perceptual hash of their crop, so that a card held
+ * steady is not recognized again on every frame.
+ *
+ * The hash is a difference hash: the crop is scaled down to {@link #HASH_WIDTH} by
+ * {@link #HASH_HEIGHT} pixels, and each bit tells whether a pixel is brighter than its right
+ * neighbour. That keeps the hash stable across noise, small shifts and exposure changes. The grid
+ * is wider than the usual 9x8, since the crop is a thin band of digits. Crops whose hashes differ
+ * in at most {@link #MAX_DISTANCE} bits are taken as the same.
+ *
+ * Cards of the same design only differ in their digits, so an entry is trusted for at most
+ * {@link #ENTRY_LIFETIME_MS}, and the cache is emptied whenever the phone moves. Results taken
+ * from the cache are marked as such, so that they never count towards confirming a code.
+ */
+final class RecognitionCache {
+
+  private static final String TAG = RecognitionCache.class.getSimpleName();
+
+  static final int HASH_WIDTH = 17;
+  static final int HASH_HEIGHT = 8;
+  /** Out of the 128 bits of the hash. */
+  static final int MAX_DISTANCE = 6;
+  static final int MAX_ENTRIES = 4;
+  static final long ENTRY_LIFETIME_MS = 2000L;
+  private static final int LOG_INTERVAL = 50;
+
+  private static final class Entry {
+    final long[] hash;
+    final long time;
+    final String text;
+    final int[] wordConfidences;
+    final int meanConfidence;
+    final BoxArray regionBoundingBoxes;
+    final BoxArray textlineBoundingBoxes;
+    final BoxArray stripBoundingBoxes;
+    final BoxArray wordBoundingBoxes;
+    final long recognitionTimeRequired;
+
+    Entry(long[] hash, OcrResult result, long time) {
+      this.hash = hash;
+      this.time = time;
+      text = result.getText();
+      wordConfidences = result.getWordConfidences();
+      meanConfidence = result.getMeanConfidence();
+      regionBoundingBoxes = result.getRegionBoundingBoxes();
+      textlineBoundingBoxes = result.getTextlineBoundingBoxes();
+      stripBoundingBoxes = result.getStripBoundingBoxes();
+      wordBoundingBoxes = result.getWordBoundingBoxes();
+      recognitionTimeRequired = result.getRecognitionTimeRequired();
+    }
+
+    int distance(long[] other) {
+      return RecognitionCache.distance(hash, other);
+    }
+  }
+
+  // Most recently used first
+  private final LinkedList<Entry> entries = new LinkedList<>();
+  private int hits;
+  private int misses;
+
+  /**
+   * @return The difference hash of the crop, as two longs.
+   */
+  static long[] hash(Bitmap crop) {
+    Bitmap scaled = Bitmap.createScaledBitmap(crop, HASH_WIDTH, HASH_HEIGHT, true);
+    int[] pixels = new int[HASH_WIDTH * HASH_HEIGHT];
+    scaled.getPixels(pixels, 0, HASH_WIDTH, 0, 0, HASH_WIDTH, HASH_HEIGHT);
+    if (scaled != crop) {
+      scaled.recycle();
+    }
+    return hash(pixels);
+  }
+
+  /**
+   * @param pixels Greyscale pixels of the crop scaled down to {@link #HASH_WIDTH} by
+   *               {@link #HASH_HEIGHT}, row by row.
+   */
+  static long[] hash(int[] pixels) {
+    long[] hash = new long[2];
+    int bit = 0;
+    for (int y = 0; y < HASH_HEIGHT; y++) {
+      int row = y * HASH_WIDTH;
+      for (int x = 0; x < HASH_WIDTH - 1; x++, bit++) {
+        // The crop is greyscale, so any channel is its luminance.
+        if ((pixels[row + x] & 0xFF) > (pixels[row + x + 1] & 0xFF)) {
+          hash[bit >> 6] |= 1L << (bit & 63);
+        }
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * @return Number of bits in which the two hashes differ.
+   */
+  static int distance(long[] a, long[] b) {
+    return Long.bitCount(a[0] ^ b[0]) + Long.bitCount(a[1] ^ b[1]);
+  }
+
+  /**
+   * @param bitmap The new crop, which the result returned takes over.
+   * @return A copy of the cached result for a crop like this one, marked as
+   * {@link OcrResult#isCached() cached}, or null.
+   */
+  OcrResult get(long[] hash, Bitmap bitmap) {
+    return get(hash, bitmap, SystemClock.elapsedRealtime());
+  }
+
+  synchronized OcrResult get(long[] hash, Bitmap bitmap, long now) {
+    Entry match = null;
+    Iterator<Entry> iterator = entries.iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (now - entry.time > ENTRY_LIFETIME_MS) {
+        iterator.remove();
+      } else if (match == null && entry.distance(hash) <= MAX_DISTANCE) {
+        match = entry;
+        iterator.remove();
+      }
+    }
+    if (match == null) {
+      misses++;
+      logCounters();
+      return null;
+    }
+    entries.addFirst(match);
+    hits++;
+    logCounters();
+
+    OcrResult result = new OcrResult();
+    result.setCached(true);
+    result.setBitmap(bitmap);
+    result.setText(match.text);
+    result.setWordConfidences(match.wordConfidences);
+    result.setMeanConfidence(match.meanConfidence);
+    result.setRegionBoundingBoxes(match.regionBoundingBoxes);
+    result.setTextlineBoundingBoxes(match.textlineBoundingBoxes);
+    result.setStripBoundingBoxes(match.stripBoundingBoxes);
+    result.setWordBoundingBoxes(match.wordBoundingBoxes);
+    // What the engine would have taken, so that the governors are not misled.
+    result.setRecognitionTimeRequired(match.recognitionTimeRequired);
+    return result;
+  }
+
+  /**
+   * Remembers a result just recognized. Takes what it needs before the result is handed on.
+   */
+  void put(long[] hash, OcrResult result) {
+    put(hash, result, SystemClock.elapsedRealtime());
+  }
+
+  synchronized void put(long[] hash, OcrResult result, long now) {
+    entries.addFirst(new Entry(hash, result, now));
+    while (entries.size() > MAX_ENTRIES) {
+      entries.removeLast();
+    }
+  }
+
+  /**
+   * Forgets every result, e.g. once the phone moved and may be looking at another card.
+   */
+  synchronized void invalidate() {
+    entries.clear();
+  }
+
+  synchronized int getHits() {
+    return hits;
+  }
+
+  synchronized int getMisses() {
+    return misses;
+  }
+
+  private void logCounters() {
+    if ((hits + misses) % LOG_INTERVAL == 0) {
+      Log.d(TAG, hits + " hits, " + misses + " misses");
+    }
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+/**
+ * Stops a recognition that runs past its time budget, so that a pathological frame (dense
+ * artwork, noise) does not hold the engine while newer frames wait.
+ *
+ * The engine reports its progress to this notifier as it recognizes, on the recognizing thread;
+ * once the deadline has passed the notifier calls the engine's stop hook, which makes the
+ * recognition return at the next word. The budget of a continuous frame is
+ * {@link #BUDGET_FACTOR} times the average time of recent recognitions, so it follows the speed
+ * of the device.
+ */
+final class RecognitionDeadline implements TessBaseAPI.ProgressNotifier {
+
+  private static final String TAG = RecognitionDeadline.class.getSimpleName();
+
+  private static final float BUDGET_FACTOR = 3.0f;
+  private static final long MIN_BUDGET_MS = 400L;
+  private static final long MAX_BUDGET_MS = 3000L;
+  /** Budget before any recognition has completed. */
+  private static final long INITIAL_BUDGET_MS = 2000L;
+  /** Budget of a single-shot recognition, which the user is waiting for anyway. */
+  static final long USER_BUDGET_MS = 10000L;
+  /** Weight of the newest sample in the recognition time average. */
+  private static final float TIME_SMOOTHING = 0.2f;
+
+  private TessBaseAPI baseApi;
+  private float averageTime = -1.0f;
+  private volatile long deadline;
+  private volatile boolean expired;
+
+  /**
+   * @param baseApi The engine this notifier was created with, to stop it.
+   */
+  void attach(TessBaseAPI baseApi) {
+    this.baseApi = baseApi;
+  }
+
+  /**
+   * @return The budget for the next continuous recognition.
+   */
+  synchronized long getBudget() {
+    if (averageTime < 0.0f) {
+      return INITIAL_BUDGET_MS;
+    }
+    long budget = (long) (averageTime * BUDGET_FACTOR);
+    return Math.max(MIN_BUDGET_MS, Math.min(MAX_BUDGET_MS, budget));
+  }
+
+  /**
+   * Starts the clock for a recognition about to begin.
+   */
+  void arm(long budgetMs) {
+    expired = false;
+    deadline = System.currentTimeMillis() + budgetMs;
+  }
+
+  void disarm() {
+    deadline = 0L;
+  }
+
+  /**
+   * @return Whether the recognition since {@link #arm(long)} was stopped for its deadline.
+   */
+  boolean isExpired() {
+    return expired;
+  }
+
+  /**
+   * @param recognitionTimeMs Time a recognition took to complete within its budget.
+   */
+  synchronized void onRecognitionCompleted(long recognitionTimeMs) {
+    if (averageTime < 0.0f) {
+      averageTime = recognitionTimeMs;
+    } else {
+      averageTime += TIME_SMOOTHING * (recognitionTimeMs - averageTime);
+    }
+  }
+
+  /**
+   * Counts a timed out recognition as having taken its whole budget, so that the budget grows
+   * again when the device slows down, e.g. as it heats up.
+   */
+  void onRecognitionTimedOut(long budgetMs) {
+    onRecognitionCompleted(budgetMs);
+  }
+
+  @Override
+  public void onProgressValues(TessBaseAPI.ProgressValues progressValues) {
+    long currentDeadline = deadline;
+    if (currentDeadline == 0L || expired || System.currentTimeMillis() < currentDeadline) {
+      return;
+    }
+    expired = true;
+    Log.d(TAG, "Recognition past its deadline at " + progressValues.getPercent() + "%; stopping");
+    if (baseApi != null) {
+      baseApi.stop();
+    }
+  }
+
+}
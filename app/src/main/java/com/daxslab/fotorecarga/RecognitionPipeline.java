@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import com.daxslab.fotorecarga.camera.CameraManager;
+import com.daxslab.fotorecarga.camera.Frame;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Continuous recognition as four stages on their own threads, connected by bounded queues:
+ *
+ * <ol>
+ * <li>capture: asks the camera for the best recent frame and paces the requests;</li>
+ * <li>preprocess: crops the framing rectangle, feeds the auto torch, skips frames with glare and
+ * fuses dim ones;</li>
+ * <li>recognize: runs Tesseract on the crop, through the {@link RecognitionScheduler};</li>
+ * <li>extract: pulls the code out of the text, feeds the camera and the governors, and votes.</li>
+ * </ol>
+ *
+ * The next frame is requested as soon as the recognizer takes a crop, so that frame is
+ * preprocessed while the previous one is being recognized. Each queue holds a single item, and
+ * the scheduler keeps only the newest waiting crop, which keeps frames from going stale while
+ * they wait. Only decisions for the user reach the UI thread: a confirmed code and glare hints.
+ * The recognized text is handed to the viewfinder directly.
+ */
+final class RecognitionPipeline {
+
+  private static final String TAG = RecognitionPipeline.class.getSimpleName();
+
+  /** Time between two recognitions while nobody seems to be scanning. */
+  private static final long IDLE_DECODE_INTERVAL_MS = 1500L;
+  /** Mean confidence below which a result most likely comes from an unfocused frame. */
+  private static final int LOW_CONFIDENCE_THRESHOLD = 60;
+  /** Number of unreadable results in a row after which the camera is asked to refocus. */
+  private static final int LOW_CONFIDENCE_RESULTS_BEFORE_REFOCUS = 3;
+
+  private final CameraManager cameraManager;
+  private final Handler resultHandler;
+  private final RecognitionScheduler scheduler;
+  private final PerformanceGovernor performanceGovernor;
+  private final ViewfinderView viewfinderView;
+
+  private final HandlerThread captureThread;
+  private final Handler captureHandler;
+  private final ActivityGovernor activityGovernor;
+  private final Thread preprocessThread;
+  private final Thread extractThread;
+
+  private final BlockingQueue<Frame> frames = new ArrayBlockingQueue<>(1);
+  private final BlockingQueue<Recognition> recognitions = new ArrayBlockingQueue<>(1);
+
+  private volatile boolean running;
+  private volatile boolean paused = true;
+  private volatile boolean idle;
+
+  // Preprocess stage only
+  private final GlareDetector glareDetector = new GlareDetector();
+  private final FrameFuser frameFuser = new FrameFuser();
+
+  // Extract stage only
+  private final CodeVoter codeVoter = new CodeVoter();
+  private int lowConfidenceResults;
+  private int timeouts;
+
+  /** Outcome of recognizing one crop. */
+  private static final class Recognition {
+    final OcrResult result; // null if no text was found
+    final long timeRequired;
+    final boolean timedOut;
+
+    Recognition(OcrResult result, long timeRequired, boolean timedOut) {
+      this.result = result;
+      this.timeRequired = timeRequired;
+      this.timedOut = timedOut;
+    }
+  }
+
+  /**
+   * @param resultHandler Receives {@link R.id#code_recognized} with the code as obj, and
+   *                      {@link R.id#ocr_continuous_decode_glare} with the glare coverage.
+   */
+  RecognitionPipeline(CaptureActivity activity, CameraManager cameraManager,
+                      RecognitionScheduler scheduler, Handler resultHandler) {
+    this.cameraManager = cameraManager;
+    this.scheduler = scheduler;
+    this.resultHandler = resultHandler;
+    this.performanceGovernor = activity.getPerformanceGovernor();
+    this.viewfinderView = activity.getViewfinderView();
+
+    captureThread = new HandlerThread("OcrCapture");
+    captureThread.start();
+    captureHandler = new CaptureHandler(captureThread.getLooper());
+    activityGovernor = new ActivityGovernor(activity, captureHandler, R.id.motion_detected);
+
+    preprocessThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (running) {
+            preprocess(frames.take());
+          }
+        } catch (InterruptedException e) {
+          // Quitting
+        }
+      }
+    }, "OcrPreprocess");
+    extractThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (running) {
+            extract(recognitions.take());
+          }
+        } catch (InterruptedException e) {
+          // Quitting
+        }
+      }
+    }, "OcrExtract");
+  }
+
+  void start() {
+    running = true;
+    activityGovernor.start();
+    preprocessThread.start();
+    extractThread.start();
+  }
+
+  /**
+   * Stops requesting frames. Frames already in the pipeline are still recognized.
+   */
+  void pause() {
+    paused = true;
+    captureHandler.removeMessages(R.id.delayed_decode);
+  }
+
+  /**
+   * Lets codes be confirmed one right after another, for batch mode.
+   */
+  void setBatchMode(boolean batchMode) {
+    codeVoter.setBatchMode(batchMode);
+  }
+
+  void resume() {
+    if (!paused) {
+      return;
+    }
+    paused = false;
+    idle = false;
+    captureHandler.sendEmptyMessage(R.id.delayed_decode);
+  }
+
+  /**
+   * Stops every stage but recognition, which belongs to the scheduler. Every frame in the pipeline
+   * is released: the capture stage releases the frames still queued for it before its looper
+   * quits, and the preprocess stage the one it is working on.
+   */
+  void quit() {
+    running = false;
+    paused = true;
+    activityGovernor.stop();
+    captureHandler.removeMessages(R.id.delayed_decode);
+    captureHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        // After every frame already sent here, and after the last one could have been queued.
+        releaseQueuedFrames();
+        captureThread.quit();
+      }
+    });
+    preprocessThread.interrupt();
+    extractThread.interrupt();
+    releaseQueuedFrames();
+  }
+
+  private void releaseQueuedFrames() {
+    Frame frame;
+    while ((frame = frames.poll()) != null) {
+      frame.release();
+    }
+  }
+
+  /**
+   * Requests the next frame: after {@link #IDLE_DECODE_INTERVAL_MS} if the activity governor
+   * finds nobody is scanning, otherwise after the interval the performance governor asks for,
+   * which is none unless the device is hot, low on battery or slow.
+   */
+  private void requestNextFrame() {
+    if (paused) {
+      return;
+    }
+    long interval;
+    if (activityGovernor.shouldIdle()) {
+      if (!idle) {
+        Log.d(TAG, "Nothing to scan; dropping to the idle rate");
+        idle = true;
+      }
+      interval = IDLE_DECODE_INTERVAL_MS;
+    } else {
+      idle = false;
+      interval = performanceGovernor.getFrameIntervalMs();
+    }
+    captureHandler.sendEmptyMessageDelayed(R.id.delayed_decode, interval);
+  }
+
+  /** Capture stage. */
+  private final class CaptureHandler extends Handler {
+
+    CaptureHandler(Looper looper) {
+      super(looper);
+    }
+
+    @Override
+    public void handleMessage(Message message) {
+      switch (message.what) {
+        case R.id.delayed_decode:
+          if (running && !paused) {
+            cameraManager.requestOcrDecode(this, R.id.ocr_continuous_decode);
+          }
+          break;
+        case R.id.ocr_continuous_decode:
+          Frame frame = (Frame) message.obj;
+          if (!running || !frames.offer(frame)) {
+            frame.release();
+          }
+          break;
+        case R.id.motion_detected:
+          // The camera may be looking at another card now.
+          scheduler.invalidateCache();
+          if (idle) {
+            Log.d(TAG, "Motion detected; back to the active rate");
+            idle = false;
+            if (hasMessages(R.id.delayed_decode)) {
+              // No frame in flight; capture one now rather than at the idle deadline.
+              removeMessages(R.id.delayed_decode);
+              sendEmptyMessage(R.id.delayed_decode);
+            }
+          }
+          break;
+      }
+    }
+  }
+
+  /**
+   * Preprocess stage. Releases the frame as soon as the cropped bitmap has been rendered, or
+   * whatever else happens.
+   */
+  private void preprocess(Frame frame) {
+    try {
+      preprocessFrame(frame);
+    } finally {
+      frame.release();
+    }
+  }
+
+  private void preprocessFrame(Frame frame) {
+    LuminanceSource source = cameraManager.buildLuminanceSource(frame);
+    if (source == null) {
+      requestNextFrame();
+      return;
+    }
+    cameraManager.reportLuminance(source);
+    PerformanceGovernor.Preprocessing preprocessing = performanceGovernor.getPreprocessing();
+    float glare = preprocessing == PerformanceGovernor.Preprocessing.MINIMAL ? 0.0f
+        : glareDetector.measureCodeBandCoverage(source);
+    if (glare > GlareDetector.MAX_CODE_BAND_COVERAGE) {
+      // Tesseract would split or drop the digits under the highlight; skip this frame.
+      resultHandler.obtainMessage(R.id.ocr_continuous_decode_glare, glare).sendToTarget();
+      // Glare means a card is in front of the camera.
+      activityGovernor.onRecognitionResult(true);
+      requestNextFrame();
+      return;
+    }
+    if (preprocessing == PerformanceGovernor.Preprocessing.FULL && cameraManager.isLowLight()) {
+      // Average out the sensor noise; frames with some glare count less.
+      source = frameFuser.add(source, 1.0f - glare / GlareDetector.MAX_CODE_BAND_COVERAGE);
+    } else {
+      frameFuser.reset();
+    }
+    Bitmap crop = source.renderCroppedGreyscaleBitmap();
+    frame.release();
+    scheduler.submit(crop, RecognitionScheduler.Priority.CONTINUOUS, recognizeCallback);
+  }
+
+  /** Recognize stage, run by the scheduler. */
+  private final RecognitionScheduler.Callback recognizeCallback =
+      new RecognitionScheduler.Callback() {
+        @Override
+        public void onStarted() {
+          // The previous crop is done with; let the next frame be preprocessed meanwhile.
+          requestNextFrame();
+        }
+
+        @Override
+        public void onRecognized(OcrResult result) {
+          hand(new Recognition(result, result.getRecognitionTimeRequired(), false));
+        }
+
+        @Override
+        public void onFailed(OcrResultFailure failure) {
+          hand(new Recognition(null, failure.getTimeRequired(), false));
+        }
+
+        @Override
+        public void onTimedOut(OcrResultTimeout timeout) {
+          hand(new Recognition(null, timeout.getTimeRequired(), true));
+        }
+
+        @Override
+        public void onPreempted() {
+          // A single-shot recognition ran instead; nothing to extract, but keep capturing.
+          requestNextFrame();
+        }
+
+        private void hand(Recognition recognition) {
+          try {
+            recognitions.put(recognition);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+
+  /** Extract stage. */
+  private void extract(Recognition recognition) {
+    performanceGovernor.onFrameRecognized(recognition.timeRequired);
+    if (recognition.timedOut) {
+      // Says nothing about focus, zoom or whether anyone is scanning; just move on.
+      timeouts++;
+      Log.d(TAG, timeouts + " recognitions timed out so far");
+      return;
+    }
+    OcrResult ocrResult = recognition.result;
+    if (ocrResult == null) {
+      activityGovernor.onRecognitionResult(false);
+      cameraManager.reportRecognitionOutcome(false);
+      countLowConfidenceResult();
+      viewfinderView.removeResultText();
+      viewfinderView.postInvalidate();
+      return;
+    }
+    activityGovernor.onRecognitionResult(true);
+
+    // A cached result repeats an earlier recognition, so it tells nothing new about focus or
+    // zoom, and cannot confirm a code.
+    boolean fresh = !ocrResult.isCached();
+    if (fresh) {
+      boolean readable = ocrResult.getMeanConfidence() >= LOW_CONFIDENCE_THRESHOLD;
+      cameraManager.reportRecognitionOutcome(readable);
+      if (readable) {
+        lowConfidenceResults = 0;
+      } else {
+        countLowConfidenceResult();
+      }
+      cameraManager.reportWordBoundingBoxes(ocrResult.getWordBoundingBoxes());
+    }
+
+    String code = CodeVoter.extractCode(ocrResult.getText());
+    ocrResult.setText(code);
+    viewfinderView.addResultText(new OcrResultText(ocrResult.getText(),
+        ocrResult.getWordConfidences(),
+        ocrResult.getMeanConfidence(),
+        ocrResult.getBitmapDimensions(),
+        ocrResult.getRegionBoundingBoxes(),
+        ocrResult.getTextlineBoundingBoxes(),
+        ocrResult.getStripBoundingBoxes(),
+        ocrResult.getWordBoundingBoxes(),
+        ocrResult.getCharacterBoundingBoxes()));
+    viewfinderView.postInvalidate();
+
+    if (!fresh) {
+      return;
+    }
+    String decision = codeVoter.vote(code);
+    if (decision != null) {
+      resultHandler.obtainMessage(R.id.code_recognized, decision).sendToTarget();
+    }
+  }
+
+  /**
+   * Asks the camera to focus on the framing rectangle again once several results in a row were
+   * poor, since that usually means the code is out of focus.
+   */
+  private void countLowConfidenceResult() {
+    lowConfidenceResults++;
+    if (lowConfidenceResults >= LOW_CONFIDENCE_RESULTS_BEFORE_REFOCUS) {
+      lowConfidenceResults = 0;
+      cameraManager.requestRefocus();
+    }
+  }
+
+}
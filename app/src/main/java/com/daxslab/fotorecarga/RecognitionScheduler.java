@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.googlecode.leptonica.android.ReadFile;
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * Runs every recognition on the OCR engine, one at a time on its own thread, in priority order.
+ *
+ * A crop the user asked for explicitly ({@link Priority#USER}) runs before any continuous crop,
+ * and cancels the continuous recognition in progress through the engine's stop hook, so its
+ * latency is bounded by a single recognition. Only the newest continuous crop is kept waiting;
+ * an older one is dropped as preempted. Every recognition also runs under a
+ * {@link RecognitionDeadline}. A continuous crop much like one recognized a moment ago gets that
+ * result from the {@link RecognitionCache} instead.
+ *
+ * Recognitions hold the engine's monitor, which {@link OcrEngineHolder} also takes to end the
+ * engine, so quitting never has to wait for the recognition in progress.
+ */
+final class RecognitionScheduler {
+
+  private static final String TAG = RecognitionScheduler.class.getSimpleName();
+
+  /** In order of precedence. */
+  enum Priority {
+    USER,
+    CONTINUOUS,
+  }
+
+  /**
+   * Receives the outcome of a recognition on the recognition thread. Exactly one of the
+   * outcome methods is called for every crop submitted.
+   */
+  interface Callback {
+
+    /** The crop is about to be recognized. */
+    void onStarted();
+
+    void onRecognized(OcrResult result);
+
+    /** No text was found, or the engine failed. */
+    void onFailed(OcrResultFailure failure);
+
+    /** Recognition was stopped for running past its budget. */
+    void onTimedOut(OcrResultTimeout timeout);
+
+    /** The crop was dropped or its recognition cancelled in favour of another crop. */
+    void onPreempted();
+  }
+
+  private static final class Job implements Comparable<Job> {
+    final Bitmap bitmap;
+    final Priority priority;
+    final long sequence;
+    final Callback callback;
+    volatile boolean preempted;
+
+    Job(Bitmap bitmap, Priority priority, long sequence, Callback callback) {
+      this.bitmap = bitmap;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.callback = callback;
+    }
+
+    @Override
+    public int compareTo(Job other) {
+      if (priority != other.priority) {
+        return priority.compareTo(other.priority);
+      }
+      return sequence < other.sequence ? -1 : sequence > other.sequence ? 1 : 0;
+    }
+  }
+
+  private final CaptureActivity activity;
+  private final TessBaseAPI baseApi;
+  private final RecognitionDeadline deadline;
+  private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+  private final RecognitionCache cache = new RecognitionCache();
+  private final Thread thread;
+  private volatile boolean running;
+  // Guarded by this
+  private long sequence;
+  private Job current;
+  private Job waitingContinuous;
+  private int waitingUser;
+
+  RecognitionScheduler(CaptureActivity activity) {
+    this.activity = activity;
+    this.baseApi = activity.getBaseApi();
+    this.deadline = activity.getRecognitionDeadline();
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (running) {
+            run(queue.take());
+          }
+        } catch (InterruptedException e) {
+          // Quitting
+        }
+      }
+    }, "OcrRecognize");
+  }
+
+  void start() {
+    running = true;
+    thread.start();
+  }
+
+  /**
+   * Queues a crop for recognition. Once the scheduler has quit, the crop is dropped right away as
+   * preempted.
+   *
+   * @param bitmap Crop of the framing rectangle. Owned by the scheduler from now on; it is either
+   *               recycled or handed over in the {@link OcrResult}.
+   */
+  void submit(Bitmap bitmap, Priority priority, Callback callback) {
+    Job job;
+    Job dropped = null;
+    synchronized (this) {
+      job = new Job(bitmap, priority, sequence++, callback);
+      if (!running) {
+        dropped = job;
+      } else if (priority == Priority.USER) {
+        waitingUser++;
+        if (current != null && current.priority == Priority.CONTINUOUS) {
+          Log.d(TAG, "Preempting continuous recognition");
+          current.preempted = true;
+          baseApi.stop();
+        }
+      } else {
+        if (waitingContinuous != null && queue.remove(waitingContinuous)) {
+          dropped = waitingContinuous;
+        }
+        waitingContinuous = job;
+      }
+      if (dropped != job) {
+        queue.add(job);
+      }
+    }
+    if (dropped != null) {
+      dropped.bitmap.recycle();
+      dropped.callback.onPreempted();
+    }
+  }
+
+  /**
+   * Forgets the recent results, e.g. because the phone moved. May be called from any thread.
+   */
+  void invalidateCache() {
+    cache.invalidate();
+  }
+
+  /**
+   * Cancels the recognition in progress and stops the recognition thread, without waiting for
+   * either. Crops still queued are dropped as preempted.
+   */
+  void quit() {
+    synchronized (this) {
+      // From here on nothing is queued, so the queue can be drained for good.
+      running = false;
+      if (current != null) {
+        current.preempted = true;
+        baseApi.stop();
+      }
+    }
+    thread.interrupt();
+    Job job;
+    while ((job = queue.poll()) != null) {
+      job.bitmap.recycle();
+      job.callback.onPreempted();
+    }
+  }
+
+  private void run(Job job) {
+    synchronized (this) {
+      if (job.priority == Priority.USER) {
+        waitingUser--;
+      } else {
+        if (waitingContinuous == job) {
+          waitingContinuous = null;
+        }
+        // A user crop queued while this one was being taken runs first.
+        job.preempted = waitingUser > 0;
+      }
+      current = job;
+    }
+    if (!job.preempted) {
+      // A single-shot crop is always recognized afresh; the user asked for it.
+      long[] hash = job.priority == Priority.CONTINUOUS ? RecognitionCache.hash(job.bitmap) : null;
+      OcrResult cached = hash != null ? cache.get(hash, job.bitmap) : null;
+      if (cached != null) {
+        job.callback.onStarted();
+        job.callback.onRecognized(cached);
+      } else {
+        synchronized (baseApi) {
+          // Once quit, the engine may have been ended while this job was being taken.
+          if (running) {
+            job.callback.onStarted();
+            recognize(job, hash);
+          } else {
+            job.preempted = true;
+          }
+        }
+      }
+    }
+    synchronized (this) {
+      current = null;
+    }
+    if (job.preempted) {
+      Log.d(TAG, job.priority + " recognition cancelled");
+      job.bitmap.recycle();
+      job.callback.onPreempted();
+    }
+  }
+
+  /**
+   * @param hash Hash of the crop, to cache the result under; null not to cache it.
+   */
+  private void recognize(Job job, long[] hash) {
+    Bitmap bitmap = job.bitmap;
+    OcrResult ocrResult;
+    String textResult;
+    long start = System.currentTimeMillis();
+    long budget = job.priority == Priority.USER ? RecognitionDeadline.USER_BUDGET_MS
+        : deadline.getBudget();
+
+    try {
+      baseApi.setImage(ReadFile.readBitmap(bitmap));
+      // Unlike getUTF8Text(), getHOCRText() recognizes under a progress monitor, so that stop()
+      // can cancel it. The text is then read from the engine's results.
+      deadline.arm(budget);
+      try {
+        baseApi.getHOCRText(0);
+      } finally {
+        deadline.disarm();
+      }
+      if (job.preempted) {
+        return;
+      }
+      if (deadline.isExpired()) {
+        long timeRequired = System.currentTimeMillis() - start;
+        Log.i(TAG, "Recognition stopped after " + timeRequired + " ms; budget " + budget + " ms");
+        if (job.priority == Priority.CONTINUOUS) {
+          deadline.onRecognitionTimedOut(budget);
+        }
+        bitmap.recycle();
+        job.callback.onTimedOut(new OcrResultTimeout(timeRequired, budget));
+        return;
+      }
+      if (job.priority == Priority.CONTINUOUS) {
+        deadline.onRecognitionCompleted(System.currentTimeMillis() - start);
+      }
+      textResult = baseApi.getUTF8Text();
+
+      // Check for failure to recognize text
+      if (textResult == null || textResult.equals("")) {
+        bitmap.recycle();
+        job.callback.onFailed(new OcrResultFailure(System.currentTimeMillis() - start));
+        return;
+      }
+      boolean allBoxes = job.priority == Priority.USER;
+      ocrResult = new OcrResult();
+      ocrResult.setWordConfidences(baseApi.wordConfidences());
+      ocrResult.setMeanConfidence(baseApi.meanConfidence());
+      if (allBoxes || ViewfinderView.DRAW_REGION_BOXES) {
+        ocrResult.setRegionBoundingBoxes(BoxArray.fromPixa(baseApi.getRegions()));
+      }
+      if (allBoxes || ViewfinderView.DRAW_TEXTLINE_BOXES) {
+        ocrResult.setTextlineBoundingBoxes(BoxArray.fromPixa(baseApi.getTextlines()));
+      }
+      if (allBoxes || ViewfinderView.DRAW_STRIP_BOXES) {
+        ocrResult.setStripBoundingBoxes(BoxArray.fromPixa(baseApi.getStrips()));
+      }
+      // Always get the word bounding boxes; the zoom controller measures the code line by them.
+      ocrResult.setWordBoundingBoxes(BoxArray.fromPixa(baseApi.getWords()));
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Caught RuntimeException in request to Tesseract. Pausing recognition.", e);
+      bitmap.recycle();
+      activity.stopHandler();
+      job.callback.onFailed(new OcrResultFailure(System.currentTimeMillis() - start));
+      return;
+    } finally {
+      baseApi.clear();
+    }
+    long timeRequired = System.currentTimeMillis() - start;
+    ocrResult.setBitmap(bitmap);
+    ocrResult.setText(textResult);
+    ocrResult.setRecognitionTimeRequired(timeRequired);
+    if (hash != null) {
+      cache.put(hash, ocrResult);
+    }
+    job.callback.onRecognized(ocrResult);
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.daxslab.fotorecarga.camera.CameraThread;
+
+/**
+ * Brings the scanner up as fast as possible. The OCR engine is initialized on a background thread
+ * from process start (see {@link FotoRecargaApplication}) and kept by the {@link OcrEngineHolder},
+ * and the camera is opened on its own {@link CameraThread} as soon as the preview surface exists,
+ * so the two overlap instead of running one after the other. The listener hears back on the main
+ * thread once both are ready.
+ *
+ * Main thread only.
+ */
+final class StartupOrchestrator {
+
+  private static final String TAG = StartupOrchestrator.class.getSimpleName();
+
+  private static StartupOrchestrator instance;
+
+  interface Listener {
+
+    /** The engine is initialized and the camera open; recognition can start. */
+    void onScannerReady();
+
+    void onEngineFailed();
+
+    void onCameraFailed(Exception e);
+  }
+
+  private final OcrEngineHolder engineHolder = OcrEngineHolder.getInstance();
+  private Listener listener;
+  private int cameraSession;
+  private boolean cameraOpen;
+
+  static StartupOrchestrator getInstance() {
+    if (instance == null) {
+      instance = new StartupOrchestrator();
+    }
+    return instance;
+  }
+
+  private StartupOrchestrator() {
+    engineHolder.setListener(new OcrEngineHolder.Listener() {
+      @Override
+      public void onEngineInitialized(boolean success) {
+        if (success) {
+          notifyIfReady();
+        } else if (listener != null) {
+          Listener failed = listener;
+          listener = null;
+          failed.onEngineFailed();
+        }
+      }
+    });
+  }
+
+  /**
+   * Opens the camera on its thread. The listener is called once both the camera and the engine
+   * are ready, or as soon as either fails.
+   */
+  void startCamera(CameraThread cameraThread, SurfaceHolder holder, Listener listener) {
+    this.listener = listener;
+    cameraOpen = false;
+    final int session = ++cameraSession;
+    if (engineHolder.isFailed()) {
+      this.listener = null;
+      listener.onEngineFailed();
+      return;
+    }
+
+    final long start = SystemClock.elapsedRealtime();
+    cameraThread.open(holder, new CameraThread.OpenCallback() {
+      @Override
+      public void onOpened() {
+        Log.i(TAG, "Camera opened in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        if (session == cameraSession) {
+          cameraOpen = true;
+          notifyIfReady();
+        }
+      }
+
+      @Override
+      public void onOpenFailed(Exception e) {
+        if (session == cameraSession && StartupOrchestrator.this.listener != null) {
+          Listener failed = StartupOrchestrator.this.listener;
+          StartupOrchestrator.this.listener = null;
+          failed.onCameraFailed(e);
+        }
+      }
+    });
+  }
+
+  private void notifyIfReady() {
+    if (listener != null && cameraOpen && engineHolder.isReady()) {
+      Listener ready = listener;
+      listener = null;
+      ready.onScannerReady();
+    }
+  }
+
+  /**
+   * Forgets the listener, e.g. when the activity pauses before the scanner is ready. A camera
+   * still opening is closed by the close request that follows on the camera thread.
+   */
+  void cancel() {
+    cameraSession++;
+    cameraOpen = false;
+    listener = null;
+  }
+
+}
@@ -16,8 +16,6 @@
  */
 package com.daxslab.fotorecarga;
 
-import java.util.List;
-
 import com.daxslab.fotorecarga.camera.CameraManager;
 
 import android.content.Context;
@@ -70,13 +68,13 @@ public final class ViewfinderView extends View {
   private final int maskColor;
   private final int frameColor;
   private final int cornerColor;
-  private OcrResultText resultText;
+  private volatile OcrResultText resultText;
   private String[] words;
-  private List<Rect> regionBoundingBoxes;
-  private List<Rect> textlineBoundingBoxes;
-  private List<Rect> stripBoundingBoxes;
-  private List<Rect> wordBoundingBoxes;
-  private List<Rect> characterBoundingBoxes;
+  private BoxArray regionBoundingBoxes;
+  private BoxArray textlineBoundingBoxes;
+  private BoxArray stripBoundingBoxes;
+  private BoxArray wordBoundingBoxes;
+  private BoxArray characterBoundingBoxes;
   //  Rect bounds;
   private Rect previewFrame;
   private Rect rect;
@@ -119,7 +117,9 @@ public final class ViewfinderView extends View {
       canvas.drawRect(frame.right + 1, frame.top, width, frame.bottom + 1, paint);
       canvas.drawRect(0, frame.bottom + 1, width, height, paint);
 
-      // If we have an OCR result, overlay its information on the viewfinder.
+      // If we have an OCR result, overlay its information on the viewfinder. Results are set from
+      // the recognition pipeline, so read the field once.
+      OcrResultText resultText = this.resultText;
       if (resultText != null) {
 
         // Only draw text/bounding boxes on viewfinder if it hasn't been resized since the OCR was requested.
@@ -138,11 +138,10 @@ public final class ViewfinderView extends View {
               paint.setColor(Color.MAGENTA);
               paint.setStyle(Style.STROKE);
               paint.setStrokeWidth(1);
-              rect = regionBoundingBoxes.get(i);
-              canvas.drawRect(frame.left + rect.left * scaleX,
-                      frame.top + rect.top * scaleY,
-                      frame.left + rect.right * scaleX,
-                      frame.top + rect.bottom * scaleY, paint);
+              canvas.drawRect(frame.left + regionBoundingBoxes.left(i) * scaleX,
+                      frame.top + regionBoundingBoxes.top(i) * scaleY,
+                      frame.left + regionBoundingBoxes.right(i) * scaleX,
+                      frame.top + regionBoundingBoxes.bottom(i) * scaleY, paint);
             }
           }
 
@@ -154,11 +153,10 @@ public final class ViewfinderView extends View {
             paint.setStyle(Style.STROKE);
             paint.setStrokeWidth(1);
             for (int i = 0; i < textlineBoundingBoxes.size(); i++) {
-              rect = textlineBoundingBoxes.get(i);
-              canvas.drawRect(frame.left + rect.left * scaleX,
-                      frame.top + rect.top * scaleY,
-                      frame.left + rect.right * scaleX,
-                      frame.top + rect.bottom * scaleY, paint);
+              canvas.drawRect(frame.left + textlineBoundingBoxes.left(i) * scaleX,
+                      frame.top + textlineBoundingBoxes.top(i) * scaleY,
+                      frame.left + textlineBoundingBoxes.right(i) * scaleX,
+                      frame.top + textlineBoundingBoxes.bottom(i) * scaleY, paint);
             }
           }
 
@@ -169,11 +167,10 @@ public final class ViewfinderView extends View {
             paint.setStyle(Style.STROKE);
             paint.setStrokeWidth(1);
             for (int i = 0; i < stripBoundingBoxes.size(); i++) {
-              rect = stripBoundingBoxes.get(i);
-              canvas.drawRect(frame.left + rect.left * scaleX,
-                      frame.top + rect.top * scaleY,
-                      frame.left + rect.right * scaleX,
-                      frame.top + rect.bottom * scaleY, paint);
+              canvas.drawRect(frame.left + stripBoundingBoxes.left(i) * scaleX,
+                      frame.top + stripBoundingBoxes.top(i) * scaleY,
+                      frame.left + stripBoundingBoxes.right(i) * scaleX,
+                      frame.top + stripBoundingBoxes.bottom(i) * scaleY, paint);
             }
           }
 
@@ -194,12 +191,11 @@ public final class ViewfinderView extends View {
             paint.setStrokeWidth(1);
             for (int i = 0; i < wordBoundingBoxes.size(); i++) {
               // Draw a bounding box around the word
-              rect = wordBoundingBoxes.get(i);
               canvas.drawRect(
-                      frame.left + rect.left * scaleX,
-                      frame.top + rect.top * scaleY,
-                      frame.left + rect.right * scaleX,
-                      frame.top + rect.bottom * scaleY, paint);
+                      frame.left + wordBoundingBoxes.left(i) * scaleX,
+                      frame.top + wordBoundingBoxes.top(i) * scaleY,
+                      frame.left + wordBoundingBoxes.right(i) * scaleX,
+                      frame.top + wordBoundingBoxes.bottom(i) * scaleY, paint);
             }
           }
 
@@ -219,7 +215,8 @@ public final class ViewfinderView extends View {
               // Only draw if word has characters
               if (!isWordBlank) {
                 // Draw a white background around each word
-                rect = wordBoundingBoxes.get(i);
+                rect.set(wordBoundingBoxes.left(i), wordBoundingBoxes.top(i),
+                        wordBoundingBoxes.right(i), wordBoundingBoxes.bottom(i));
                 paint.setColor(Color.WHITE);
                 paint.setStyle(Style.FILL);
                 if (DRAW_TRANSPARENT_WORD_BACKGROUNDS) {
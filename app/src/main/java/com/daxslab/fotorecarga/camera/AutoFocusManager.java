@@ -16,37 +16,89 @@
 
 package com.daxslab.fotorecarga.camera;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.Camera;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 //import com.google.zxing.client.android.PreferencesActivity;
 
+/**
+ * Drives the lens and tracks whether it is moving. In the auto and macro modes focus is
+ * re-triggered periodically from a shared scheduler thread, more often after failed scans or
+ * unreadable results and less often while things go well. In the continuous modes the driver
+ * focuses by itself and, from Jelly Bean on, reports when the lens starts and stops moving. Either
+ * way {@link #getFocusState} tells the preview callback whether a frame is worth decoding, and
+ * {@link #refocus} forces a new scan when recognition suggests the code is blurry.
+ */
 @SuppressWarnings("deprecation") // camera APIs
 final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private static final String TAG = AutoFocusManager.class.getSimpleName();
 
     private static final long AUTO_FOCUS_INTERVAL_MS = 2000L;
+    private static final long MIN_AUTO_FOCUS_INTERVAL_MS = 1000L;
+    private static final long MAX_AUTO_FOCUS_INTERVAL_MS = 5000L;
     private static final Collection<String> FOCUS_MODES_CALLING_AF;
     static {
         FOCUS_MODES_CALLING_AF = new ArrayList<>(2);
         FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_AUTO);
         FOCUS_MODES_CALLING_AF.add(Camera.Parameters.FOCUS_MODE_MACRO);
     }
+    private static final Collection<String> FOCUS_MODES_CONTINUOUS;
+    static {
+        FOCUS_MODES_CONTINUOUS = new ArrayList<>(2);
+        FOCUS_MODES_CONTINUOUS.add(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+        FOCUS_MODES_CONTINUOUS.add(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO);
+    }
 
     private boolean stopped;
     private boolean focusing;
     private final boolean useAutoFocus;
+    private final boolean continuousFocus;
     private final Camera camera;
-    private AsyncTask<?,?,?> outstandingTask;
+    private ScheduledFuture<?> outstandingTask;
+    private long intervalMs = AUTO_FOCUS_INTERVAL_MS;
+    private volatile FocusState focusState = FocusState.UNKNOWN;
+
+    /**
+     * One daemon thread that only ever runs the short re-arming task, shared by every instance so
+     * that restarting the preview does not leave threads behind.
+     */
+    private static ScheduledExecutorService scheduler;
+
+    private static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "AutoFocus");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return scheduler;
+    }
+
+    private final Runnable autoFocusTask = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
 
   AutoFocusManager(Context context, Camera camera) {
     this.camera = camera;
@@ -55,22 +107,77 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
     useAutoFocus =
 //        sharedPrefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true) &&
         FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
+    continuousFocus = FOCUS_MODES_CONTINUOUS.contains(currentFocusMode);
     Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
+    if (continuousFocus && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      setMoveCallback(camera, new FocusMoveCallback());
+    }
     start();
   }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static void setMoveCallback(Camera camera, Camera.AutoFocusMoveCallback callback) {
+        try {
+            camera.setAutoFocusMoveCallback(callback);
+        } catch (RuntimeException re) {
+            Log.w(TAG, "Could not track focus moves", re);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private final class FocusMoveCallback implements Camera.AutoFocusMoveCallback {
+        @Override
+        public void onAutoFocusMoving(boolean start, Camera theCamera) {
+            // The driver does not say whether a continuous scan succeeded; a still lens will do.
+            focusState = start ? FocusState.SCANNING : FocusState.FOCUSED;
+        }
+    }
+
+    /**
+     * @return Focus state of the lens right now.
+     */
+    FocusState getFocusState() {
+        return focusState;
+    }
+
     @Override
     public synchronized void onAutoFocus(boolean success, Camera theCamera) {
         focusing = false;
-        autoFocusAgainLater();
+        focusState = success ? FocusState.FOCUSED : FocusState.UNFOCUSED;
+        adaptInterval(success);
+        if (continuousFocus) {
+            // This was a refocus; hand the lens back to continuous focus.
+            cancelAutoFocus();
+        } else {
+            autoFocusAgainLater();
+        }
+    }
+
+    /**
+     * Lets the outcome of recognizing a frame steer the focus interval: an unreadable result
+     * brings the next scan forward, a readable one lets the lens rest longer.
+     */
+    synchronized void onRecognitionOutcome(boolean readable) {
+        adaptInterval(readable);
+        if (!readable && useAutoFocus && outstandingTask != null) {
+            cancelOutstandingTask();
+            autoFocusAgainLater();
+        }
+    }
+
+    private void adaptInterval(boolean success) {
+        if (success) {
+            intervalMs = Math.min(MAX_AUTO_FOCUS_INTERVAL_MS, intervalMs * 3 / 2);
+        } else {
+            intervalMs = Math.max(MIN_AUTO_FOCUS_INTERVAL_MS, intervalMs / 2);
+        }
     }
 
     private synchronized void autoFocusAgainLater() {
         if (!stopped && outstandingTask == null) {
-            AutoFocusTask newTask = new AutoFocusTask();
             try {
-                newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                outstandingTask = newTask;
+                outstandingTask =
+                        getScheduler().schedule(autoFocusTask, intervalMs, TimeUnit.MILLISECONDS);
             } catch (RejectedExecutionException ree) {
                 Log.w(TAG, "Could not request auto focus", ree);
             }
@@ -80,14 +187,35 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
     synchronized void start() {
         if (useAutoFocus) {
             outstandingTask = null;
-            if (!stopped && !focusing) {
-                try {
-                    camera.autoFocus(this);
-                    focusing = true;
-                } catch (RuntimeException re) {
-                    // Have heard RuntimeException reported in Android 4.0.x+; continue?
-                    Log.w(TAG, "Unexpected exception while focusing", re);
-                    // Try again later to keep cycle going
+            autoFocus();
+        }
+    }
+
+    /**
+     * Starts a focus scan right away, over the focus area if one is set, instead of waiting for
+     * the next periodic one. Does nothing on fixed-focus cameras or while a scan is running.
+     */
+    synchronized void refocus() {
+        if (useAutoFocus) {
+            cancelOutstandingTask();
+            autoFocus();
+        } else if (continuousFocus) {
+            Log.i(TAG, "Forcing a focus scan");
+            autoFocus();
+        }
+    }
+
+    private void autoFocus() {
+        if (!stopped && !focusing) {
+            try {
+                camera.autoFocus(this);
+                focusing = true;
+                focusState = FocusState.SCANNING;
+            } catch (RuntimeException re) {
+                // Have heard RuntimeException reported in Android 4.0.x+; continue?
+                Log.w(TAG, "Unexpected exception while focusing", re);
+                // Try again later to keep cycle going
+                if (useAutoFocus) {
                     autoFocusAgainLater();
                 }
             }
@@ -96,38 +224,33 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private synchronized void cancelOutstandingTask() {
         if (outstandingTask != null) {
-            if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-                outstandingTask.cancel(true);
-            }
+            outstandingTask.cancel(false);
             outstandingTask = null;
         }
     }
 
+    private void cancelAutoFocus() {
+        try {
+            camera.cancelAutoFocus();
+        } catch (RuntimeException re) {
+            // Have heard RuntimeException reported in Android 4.0.x+; continue?
+            Log.w(TAG, "Unexpected exception while cancelling focusing", re);
+        }
+    }
+
     synchronized void stop() {
         stopped = true;
         if (useAutoFocus) {
             cancelOutstandingTask();
+        }
+        if (useAutoFocus || continuousFocus) {
             // Doesn't hurt to call this even if not focusing
-            try {
-                camera.cancelAutoFocus();
-            } catch (RuntimeException re) {
-                // Have heard RuntimeException reported in Android 4.0.x+; continue?
-                Log.w(TAG, "Unexpected exception while cancelling focusing", re);
-            }
+            cancelAutoFocus();
         }
-    }
-
-    private final class AutoFocusTask extends AsyncTask<Object,Object,Object> {
-        @Override
-        protected Object doInBackground(Object... voids) {
-            try {
-                Thread.sleep(AUTO_FOCUS_INTERVAL_MS);
-            } catch (InterruptedException e) {
-                // continue
-            }
-            start();
-            return null;
+        if (continuousFocus && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setMoveCallback(camera, null);
         }
+        focusState = FocusState.UNKNOWN;
     }
 
 }
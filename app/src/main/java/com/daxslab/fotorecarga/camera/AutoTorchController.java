@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.util.Log;
+
+import com.daxslab.fotorecarga.LuminanceSource;
+
+/**
+ * Turns the torch on when the code is too dark to read and off again when the scene is bright
+ * or the torch itself is making the glossy card glare.
+ *
+ * Each frame's framing rectangle is sampled into a luminance histogram that is blended into a
+ * running one, so single odd frames do not flip the torch. The on and off thresholds are far
+ * apart, and the torch is never switched twice within {@link #MIN_SWITCH_INTERVAL_MS}. After
+ * glare turned it off it stays off for {@link #GLARE_LOCKOUT_MS}.
+ */
+final class AutoTorchController {
+
+  private static final String TAG = AutoTorchController.class.getSimpleName();
+
+  private static final int BINS = 32;
+  private static final int SAMPLE_STEP = 4;
+  /** Weight of the newest frame in the running histogram. */
+  private static final float NEW_FRAME_WEIGHT = 0.25f;
+
+  private static final float TORCH_ON_MEAN = 45.0f;
+  private static final float TORCH_OFF_MEAN = 160.0f;
+  /**
+   * Mean below which auto-exposure has run out of range and frames get noisy. Well above
+   * {@link #TORCH_ON_MEAN}, so frames are denoised before the torch is needed at all.
+   */
+  private static final float LOW_LIGHT_MEAN = 80.0f;
+  /** Luminance from which a pixel counts as specular glare. */
+  static final int SATURATION_THRESHOLD = 250;
+  /** Share of saturated pixels above which the torch is turned off. */
+  private static final float MAX_GLARE_FRACTION = 0.02f;
+
+  private static final long MIN_SWITCH_INTERVAL_MS = 2000L;
+  private static final long GLARE_LOCKOUT_MS = 10000L;
+
+  private final FrameSource frameSource;
+  private final float[] histogram = new float[BINS];
+  private final int[] frameHistogram = new int[BINS];
+  private byte[] row;
+  private boolean primed;
+  private float glareFraction;
+  private boolean torchOn;
+  private long lastSwitchTime;
+  private long glareOffTime;
+
+  AutoTorchController(FrameSource frameSource) {
+    this.frameSource = frameSource;
+  }
+
+  /**
+   * @param source Luminance of the framing rectangle of the newest frame.
+   */
+  synchronized void onLuminance(LuminanceSource source) {
+    int saturated = sample(source);
+    int samples = 0;
+    for (int count : frameHistogram) {
+      samples += count;
+    }
+    if (samples == 0) {
+      return;
+    }
+    float weight = primed ? NEW_FRAME_WEIGHT : 1.0f;
+    for (int i = 0; i < BINS; i++) {
+      histogram[i] = histogram[i] * (1.0f - weight) + weight * frameHistogram[i] / samples;
+    }
+    glareFraction = glareFraction * (1.0f - weight) + weight * saturated / samples;
+    primed = true;
+
+    long now = System.currentTimeMillis();
+    if (now - lastSwitchTime < MIN_SWITCH_INTERVAL_MS) {
+      return;
+    }
+    float mean = getMean();
+    if (torchOn) {
+      if (glareFraction > MAX_GLARE_FRACTION) {
+        Log.i(TAG, "Torch glare covers " + glareFraction + " of the frame; turning it off");
+        glareOffTime = now;
+        switchTorch(false, now);
+      } else if (mean > TORCH_OFF_MEAN) {
+        Log.i(TAG, "Mean luminance " + mean + "; turning the torch off");
+        switchTorch(false, now);
+      }
+    } else if (mean < TORCH_ON_MEAN && now - glareOffTime >= GLARE_LOCKOUT_MS) {
+      Log.i(TAG, "Mean luminance " + mean + "; turning the torch on");
+      switchTorch(true, now);
+    }
+  }
+
+  /**
+   * @return Whether recent frames were dark enough to be noisy.
+   */
+  synchronized boolean isLowLight() {
+    return primed && getMean() < LOW_LIGHT_MEAN;
+  }
+
+  synchronized void reset() {
+    primed = false;
+    glareFraction = 0.0f;
+    torchOn = false;
+    lastSwitchTime = 0L;
+    glareOffTime = 0L;
+  }
+
+  private void switchTorch(boolean on, long now) {
+    frameSource.setTorch(on);
+    torchOn = on;
+    lastSwitchTime = now;
+    // The new lighting makes the old histogram meaningless.
+    primed = false;
+  }
+
+  /**
+   * Fills the frame histogram from every {@link #SAMPLE_STEP}th pixel of every
+   * {@link #SAMPLE_STEP}th row.
+   *
+   * @return Number of sampled pixels that are saturated.
+   */
+  private int sample(LuminanceSource source) {
+    for (int i = 0; i < BINS; i++) {
+      frameHistogram[i] = 0;
+    }
+    int width = source.getWidth();
+    int height = source.getHeight();
+    int saturated = 0;
+    for (int y = 0; y < height; y += SAMPLE_STEP) {
+      row = source.getRow(y, row);
+      for (int x = 0; x < width; x += SAMPLE_STEP) {
+        int luminance = row[x] & 0xff;
+        frameHistogram[luminance * BINS >> 8]++;
+        if (luminance >= SATURATION_THRESHOLD) {
+          saturated++;
+        }
+      }
+    }
+    return saturated;
+  }
+
+  private float getMean() {
+    float mean = 0.0f;
+    for (int i = 0; i < BINS; i++) {
+      mean += histogram[i] * ((i << 8) + 128) / BINS;
+    }
+    return mean;
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.util.Log;
+
+import com.daxslab.fotorecarga.BoxArray;
+
+/**
+ * Zooms the camera so that the code line spans about {@link #TARGET_FILL} of the framing
+ * rectangle. Users can then hold the phone at a distance the lens focuses well at, and the zoom,
+ * done by the camera on the full sensor image, gives the digits more detail than the preview
+ * would otherwise have.
+ *
+ * The line width is measured on the word boxes of each recognized frame. The zoom is only
+ * changed after {@link #AGREEING_MEASUREMENTS} measurements in a row ask for the same direction,
+ * and at most every {@link #MIN_STEP_INTERVAL_MS}, so that it does not chase noise.
+ */
+final class AutoZoomController {
+
+  private static final String TAG = AutoZoomController.class.getSimpleName();
+
+  /** Fraction of the framing rectangle width the code line should span. */
+  private static final float TARGET_FILL = 0.8f;
+  private static final float MIN_FILL = 0.65f;
+  private static final float MAX_FILL = 0.92f;
+
+  /** Largest zoom change, as a ratio, in a single step. */
+  private static final float MAX_STEP = 1.5f;
+  private static final int AGREEING_MEASUREMENTS = 2;
+  private static final long MIN_STEP_INTERVAL_MS = 600L;
+
+  private final FrameSource frameSource;
+  private int lastDirection;
+  private int agreeing;
+  private long lastStepTime;
+
+  AutoZoomController(FrameSource frameSource) {
+    this.frameSource = frameSource;
+  }
+
+  /**
+   * @param wordBoxes Word bounding boxes of a recognized frame, in framing rectangle coordinates.
+   * @param roiWidth Width of the framing rectangle in preview pixels.
+   */
+  synchronized void onWordsRecognized(BoxArray wordBoxes, int roiWidth) {
+    float maxZoom = frameSource.getMaxZoomRatio();
+    if (maxZoom <= 1.0f || roiWidth <= 0) {
+      return;
+    }
+    int lineWidth = measureLineWidth(wordBoxes);
+    if (lineWidth <= 0) {
+      return;
+    }
+    float fill = (float) lineWidth / roiWidth;
+    int direction = fill < MIN_FILL ? 1 : fill > MAX_FILL ? -1 : 0;
+    if (direction == 0 || direction != lastDirection) {
+      lastDirection = direction;
+      agreeing = direction == 0 ? 0 : 1;
+      return;
+    }
+    agreeing++;
+    long now = System.currentTimeMillis();
+    if (agreeing < AGREEING_MEASUREMENTS || now - lastStepTime < MIN_STEP_INTERVAL_MS) {
+      return;
+    }
+
+    float zoom = frameSource.getZoomRatio();
+    float step = Math.max(1.0f / MAX_STEP, Math.min(MAX_STEP, TARGET_FILL / fill));
+    float newZoom = Math.max(1.0f, Math.min(maxZoom, zoom * step));
+    if (Math.abs(newZoom - zoom) < 0.01f) {
+      return;
+    }
+    Log.i(TAG, "Code line fills " + fill + " of the frame; zooming from " + zoom + " to " + newZoom);
+    frameSource.setZoomRatio(newZoom);
+    lastStepTime = now;
+    agreeing = 0;
+  }
+
+  synchronized void reset() {
+    lastDirection = 0;
+    agreeing = 0;
+    lastStepTime = 0L;
+  }
+
+  /**
+   * The code line is the widest run of words sharing a row: for each word, the horizontal extent
+   * of the words whose vertical centre falls within it.
+   *
+   * @return Width of the code line, or 0 if there are no words.
+   */
+  static int measureLineWidth(BoxArray wordBoxes) {
+    if (wordBoxes == null) {
+      return 0;
+    }
+    int widest = 0;
+    int count = wordBoxes.size();
+    for (int anchor = 0; anchor < count; anchor++) {
+      int top = wordBoxes.top(anchor);
+      int bottom = wordBoxes.bottom(anchor);
+      int left = wordBoxes.left(anchor);
+      int right = wordBoxes.right(anchor);
+      for (int word = 0; word < count; word++) {
+        int centerY = wordBoxes.centerY(word);
+        if (centerY >= top && centerY <= bottom) {
+          left = Math.min(left, wordBoxes.left(word));
+          right = Math.max(right, wordBoxes.right(word));
+        }
+      }
+      widest = Math.max(widest, right - left);
+    }
+    return widest;
+  }
+
+}
@@ -0,0 +1,821 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Display;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FrameSource} on top of the camera2 API. Frames come from an {@link ImageReader} in
+ * YUV_420_888 format and expose the Y plane of the camera buffer directly, together with its sensor
+ * timestamp and the autofocus state reported for the capture, so nothing is copied on the way to
+ * the decoder.
+ *
+ * All camera callbacks run on a private background thread. Only used on devices whose camera2
+ * implementation is better than the LEGACY shim over the old API, see {@link #isSupported}.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2FrameSource implements FrameSource {
+
+  private static final String TAG = Camera2FrameSource.class.getSimpleName();
+
+  private static final long OPEN_TIMEOUT_MS = 2500L;
+  /** Longest wait on close for frames still being read to be released. */
+  private static final long FRAME_RELEASE_TIMEOUT_MS = 1000L;
+
+  private final Context context;
+  private final android.hardware.camera2.CameraManager cameraService;
+  private final PreviewSizeSelector previewSizeSelector;
+  private int requestedCameraId = -1;
+  private HandlerThread backgroundThread;
+  private Handler backgroundHandler;
+  private CameraCharacteristics characteristics;
+  private CameraDevice device;
+  private CameraCaptureSession session;
+  private ImageReader imageReader;
+  private volatile ImageTracker imageTracker;
+  private CaptureRequest.Builder requestBuilder;
+  private Point previewSize;
+  private Point screenResolution;
+  private boolean previewing;
+  private boolean torch;
+  private Rect regionOfInterest;
+  private float maxZoomRatio = 1.0f;
+  private float zoomRatio = 1.0f;
+  private final FocusHistory focusHistory = new FocusHistory();
+  private volatile FrameCallback frameCallback;
+  private volatile ErrorCallback errorCallback;
+
+  Camera2FrameSource(Context context) {
+    this.context = context;
+    this.cameraService =
+        (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    this.previewSizeSelector = new PreviewSizeSelector(context);
+  }
+
+  /**
+   * Must only be called on Lollipop or later.
+   *
+   * @return Whether the back camera has a full camera2 implementation rather than the LEGACY shim.
+   */
+  static boolean isSupported(Context context) {
+    android.hardware.camera2.CameraManager cameraService =
+        (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    if (cameraService == null) {
+      return false;
+    }
+    try {
+      String cameraId = selectCameraId(cameraService, -1);
+      if (cameraId == null) {
+        return false;
+      }
+      Integer level = cameraService.getCameraCharacteristics(cameraId)
+          .get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+      Log.i(TAG, "Camera " + cameraId + " hardware level: " + level);
+      return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+    } catch (CameraAccessException | RuntimeException e) {
+      Log.w(TAG, "Could not query camera2 characteristics", e);
+      return false;
+    }
+  }
+
+  /**
+   * Opens the camera device. The capture session needs a live preview surface, so if the surface
+   * has not been created yet the session is set up by a later call, once it has.
+   */
+  @Override
+  public synchronized void open(SurfaceHolder holder) throws IOException {
+    try {
+      if (device == null) {
+        startBackgroundThread();
+        String cameraId = selectCameraId(cameraService, requestedCameraId);
+        if (cameraId == null) {
+          throw new IOException("No camera available");
+        }
+        characteristics = cameraService.getCameraCharacteristics(cameraId);
+        Float maxDigitalZoom =
+            characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+        maxZoomRatio = maxDigitalZoom == null ? 1.0f : Math.max(1.0f, maxDigitalZoom);
+        zoomRatio = 1.0f;
+
+        WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        Display display = manager.getDefaultDisplay();
+        Point theScreenResolution = new Point();
+        display.getSize(theScreenResolution);
+        screenResolution = theScreenResolution;
+        previewSize = findBestPreviewSize(cameraId, characteristics, screenResolution);
+        Log.i(TAG, "Screen resolution: " + screenResolution + ", preview size: " + previewSize);
+        holder.setFixedSize(previewSize.x, previewSize.y);
+
+        device = openDevice(cameraId);
+      }
+      if (session == null && holder.getSurface().isValid()) {
+        startSession(holder.getSurface());
+      }
+    } catch (CameraAccessException | SecurityException | IllegalArgumentException e) {
+      close();
+      throw new IOException("Could not open camera: " + e);
+    } catch (IOException ioe) {
+      close();
+      throw ioe;
+    }
+  }
+
+  private void startSession(Surface previewSurface) throws CameraAccessException, IOException {
+    imageReader = ImageReader.newInstance(previewSize.x, previewSize.y,
+        ImageFormat.YUV_420_888, FrameSelector.POOL_SIZE);
+    imageReader.setOnImageAvailableListener(imageListener, backgroundHandler);
+    imageTracker = new ImageTracker(imageReader);
+    session = createSession(Arrays.asList(previewSurface, imageReader.getSurface()));
+
+    requestBuilder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+    requestBuilder.addTarget(previewSurface);
+    requestBuilder.addTarget(imageReader.getSurface());
+    requestBuilder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+    requestBuilder.set(CaptureRequest.CONTROL_AF_MODE, findFocusMode(characteristics));
+    requestBuilder.set(CaptureRequest.FLASH_MODE, torch ?
+        CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+    Range<Integer> fpsRange = findOcrFpsRange(characteristics);
+    if (fpsRange != null) {
+      Log.i(TAG, "Setting FPS range to " + fpsRange);
+      requestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+    }
+    applyZoom();
+    applyRegionOfInterest();
+  }
+
+  @Override
+  public synchronized void setTargetDigitHeight(int targetDigitHeight) {
+    previewSizeSelector.setTargetDigitHeight(targetDigitHeight);
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return device != null;
+  }
+
+  /**
+   * Waits for the frames still out outside this object's monitor, since the threads holding them
+   * may need it, e.g. to set the torch, before they release them.
+   */
+  @Override
+  public void close() {
+    ImageTracker tracker;
+    synchronized (this) {
+      stopPreview();
+      if (session != null) {
+        session.close();
+        session = null;
+      }
+      if (device != null) {
+        device.close();
+        device = null;
+      }
+      characteristics = null;
+      tracker = imageTracker;
+      imageTracker = null;
+      imageReader = null;
+      requestBuilder = null;
+      stopBackgroundThread();
+    }
+    if (tracker != null) {
+      // Closing the reader frees the buffers that frames still out would read from.
+      tracker.close();
+    }
+  }
+
+  @Override
+  public synchronized void startPreview() {
+    if (session != null && !previewing) {
+      try {
+        session.setRepeatingRequest(requestBuilder.build(), captureCallback, backgroundHandler);
+        previewing = true;
+      } catch (CameraAccessException | IllegalStateException e) {
+        Log.w(TAG, "Could not start preview", e);
+      }
+      if (previewing && !isContinuousFocus()) {
+        // Auto mode only focuses when triggered.
+        refocus();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void stopPreview() {
+    if (session != null && previewing) {
+      try {
+        session.stopRepeating();
+      } catch (CameraAccessException | IllegalStateException e) {
+        Log.w(TAG, "Could not stop preview", e);
+      }
+      previewing = false;
+    }
+    focusHistory.clear();
+  }
+
+  @Override
+  public void setFrameCallback(FrameCallback callback) {
+    frameCallback = callback;
+  }
+
+  @Override
+  public void setErrorCallback(ErrorCallback callback) {
+    errorCallback = callback;
+  }
+
+  @Override
+  public synchronized Point getPreviewSize() {
+    return previewSize;
+  }
+
+  @Override
+  public synchronized Point getScreenResolution() {
+    return screenResolution;
+  }
+
+  @Override
+  public synchronized void setRegionOfInterest(Rect regionInPreview) {
+    regionOfInterest = new Rect(regionInPreview);
+    if (requestBuilder != null) {
+      applyRegionOfInterest();
+      if (previewing) {
+        try {
+          session.setRepeatingRequest(requestBuilder.build(), captureCallback, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+          Log.w(TAG, "Could not update focus and metering regions", e);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized float getMaxZoomRatio() {
+    return maxZoomRatio;
+  }
+
+  @Override
+  public synchronized float getZoomRatio() {
+    return zoomRatio;
+  }
+
+  @Override
+  public synchronized void setZoomRatio(float ratio) {
+    zoomRatio = Math.max(1.0f, Math.min(maxZoomRatio, ratio));
+    if (requestBuilder != null) {
+      applyZoom();
+      // The regions are relative to the crop, so they move with it.
+      applyRegionOfInterest();
+      if (previewing) {
+        try {
+          session.setRepeatingRequest(requestBuilder.build(), captureCallback, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+          Log.w(TAG, "Could not update zoom", e);
+        }
+      }
+    }
+  }
+
+  private void applyZoom() {
+    Rect cropRegion = getCropRegion();
+    if (cropRegion != null) {
+      requestBuilder.set(CaptureRequest.SCALER_CROP_REGION, cropRegion);
+    }
+  }
+
+  /**
+   * @return The centred part of the active array that the current zoom ratio shows, or null if
+   *         the sensor does not report its active array.
+   */
+  private Rect getCropRegion() {
+    Rect activeArray = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+    if (activeArray == null) {
+      return null;
+    }
+    int width = (int) (activeArray.width() / zoomRatio);
+    int height = (int) (activeArray.height() / zoomRatio);
+    int left = activeArray.left + (activeArray.width() - width) / 2;
+    int top = activeArray.top + (activeArray.height() - height) / 2;
+    return new Rect(left, top, left + width, top + height);
+  }
+
+  /**
+   * Sets the AF and AE regions of the request to the region of interest, mapped from preview
+   * coordinates onto the sensor. Without region support the camera keeps using the whole scene.
+   */
+  private void applyRegionOfInterest() {
+    if (regionOfInterest == null) {
+      return;
+    }
+    Rect cropRegion = getCropRegion();
+    if (cropRegion == null) {
+      return;
+    }
+    MeteringRectangle[] regions = {
+        new MeteringRectangle(toSensorRegion(regionOfInterest, previewSize, cropRegion),
+                              MeteringRectangle.METERING_WEIGHT_MAX)
+    };
+    Integer maxAfRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+    if (maxAfRegions != null && maxAfRegions > 0) {
+      requestBuilder.set(CaptureRequest.CONTROL_AF_REGIONS, regions);
+    } else {
+      Log.i(TAG, "Device does not support focus regions");
+    }
+    Integer maxAeRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+    if (maxAeRegions != null && maxAeRegions > 0) {
+      requestBuilder.set(CaptureRequest.CONTROL_AE_REGIONS, regions);
+    } else {
+      Log.i(TAG, "Device does not support metering regions");
+    }
+  }
+
+  /**
+   * The preview stream shows the largest centred part of the crop region with the preview's
+   * aspect ratio; maps a preview rectangle into that part.
+   */
+  private static Rect toSensorRegion(Rect regionInPreview, Point previewSize, Rect cropRegion) {
+    int cropWidth = cropRegion.width();
+    int cropHeight = cropRegion.height();
+    if ((long) cropWidth * previewSize.y > (long) cropHeight * previewSize.x) {
+      cropWidth = cropHeight * previewSize.x / previewSize.y;
+    } else {
+      cropHeight = cropWidth * previewSize.y / previewSize.x;
+    }
+    int left = cropRegion.left + (cropRegion.width() - cropWidth) / 2;
+    int top = cropRegion.top + (cropRegion.height() - cropHeight) / 2;
+    return new Rect(left + regionInPreview.left * cropWidth / previewSize.x,
+                    top + regionInPreview.top * cropHeight / previewSize.y,
+                    left + regionInPreview.right * cropWidth / previewSize.x,
+                    top + regionInPreview.bottom * cropHeight / previewSize.y);
+  }
+
+  /**
+   * In continuous mode, cancelling the trigger restarts the passive scan; in auto mode, starting
+   * it runs a single scan and locks.
+   */
+  @Override
+  public synchronized void refocus() {
+    if (session == null || !previewing) {
+      return;
+    }
+    Integer afMode = requestBuilder.get(CaptureRequest.CONTROL_AF_MODE);
+    if (afMode == null || afMode == CameraMetadata.CONTROL_AF_MODE_OFF) {
+      return;
+    }
+    requestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, isContinuousFocus() ?
+        CameraMetadata.CONTROL_AF_TRIGGER_CANCEL : CameraMetadata.CONTROL_AF_TRIGGER_START);
+    try {
+      session.capture(requestBuilder.build(), captureCallback, backgroundHandler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.w(TAG, "Could not trigger focus", e);
+    } finally {
+      requestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CameraMetadata.CONTROL_AF_TRIGGER_IDLE);
+    }
+  }
+
+  @Override
+  public void onRecognitionOutcome(boolean readable) {
+    // The camera2 autofocus routine schedules its own scans; refocus() covers poor results.
+  }
+
+  private boolean isContinuousFocus() {
+    Integer afMode = requestBuilder.get(CaptureRequest.CONTROL_AF_MODE);
+    return afMode != null && afMode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+  }
+
+  @Override
+  public synchronized boolean getTorchState() {
+    return torch;
+  }
+
+  @Override
+  public synchronized void setTorch(boolean newSetting) {
+    if (newSetting == torch) {
+      return;
+    }
+    torch = newSetting;
+    if (requestBuilder != null) {
+      requestBuilder.set(CaptureRequest.FLASH_MODE, newSetting ?
+          CameraMetadata.FLASH_MODE_TORCH : CameraMetadata.FLASH_MODE_OFF);
+      if (previewing) {
+        try {
+          session.setRepeatingRequest(requestBuilder.build(), captureCallback, backgroundHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+          Log.w(TAG, "Could not update torch", e);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void setManualCameraId(int cameraId) {
+    requestedCameraId = cameraId;
+  }
+
+  private final CameraCaptureSession.CaptureCallback captureCallback =
+      new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session,
+                                       CaptureRequest request,
+                                       TotalCaptureResult result) {
+          Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+          if (timestamp != null) {
+            focusHistory.put(timestamp,
+                toFocusState(result.get(CaptureResult.CONTROL_AF_STATE)));
+          }
+        }
+      };
+
+  private final ImageReader.OnImageAvailableListener imageListener =
+      new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+          Image image;
+          try {
+            image = reader.acquireLatestImage();
+          } catch (IllegalStateException ise) {
+            // The decoder still holds every image we are allowed; skip this one.
+            return;
+          }
+          if (image == null) {
+            return;
+          }
+          FrameCallback theFrameCallback = frameCallback;
+          ImageTracker tracker = imageTracker;
+          if (theFrameCallback == null || tracker == null || tracker.reader != reader) {
+            image.close();
+            return;
+          }
+          tracker.onAcquired();
+          Image.Plane luminance = image.getPlanes()[0];
+          Frame frame = new Frame(luminance.getBuffer(),
+                                  image.getWidth(),
+                                  image.getHeight(),
+                                  luminance.getRowStride(),
+                                  luminance.getPixelStride(),
+                                  image.getTimestamp(),
+                                  focusHistory.get(image.getTimestamp()),
+                                  new ImageReleaser(image, tracker));
+          theFrameCallback.onFrame(frame);
+        }
+      };
+
+  /**
+   * The autofocus state of the last few captures, by sensor timestamp, which is also the timestamp
+   * of their images.
+   */
+  private static final class FocusHistory {
+    private static final int SIZE = 8;
+
+    private final long[] timestamps = new long[SIZE];
+    private final FocusState[] states = new FocusState[SIZE];
+    private int next;
+    private int count;
+
+    synchronized void put(long timestamp, FocusState state) {
+      timestamps[next] = timestamp;
+      states[next] = state;
+      next = (next + 1) % SIZE;
+      if (count < SIZE) {
+        count++;
+      }
+    }
+
+    /**
+     * @return The state the image of that timestamp was captured in. An image often arrives before
+     * its capture result; it then gets the state of the capture just before it, which the lens
+     * rarely leaves within a frame.
+     */
+    synchronized FocusState get(long timestamp) {
+      FocusState state = FocusState.UNKNOWN;
+      long before = Long.MIN_VALUE;
+      for (int i = 0; i < count; i++) {
+        if (timestamps[i] == timestamp) {
+          return states[i];
+        }
+        if (timestamps[i] < timestamp && timestamps[i] > before) {
+          before = timestamps[i];
+          state = states[i];
+        }
+      }
+      return state;
+    }
+
+    synchronized void clear() {
+      count = 0;
+      next = 0;
+    }
+  }
+
+  private static final class ImageReleaser implements Runnable {
+    private final Image image;
+    private final ImageTracker tracker;
+
+    ImageReleaser(Image image, ImageTracker tracker) {
+      this.image = image;
+      this.tracker = tracker;
+    }
+
+    @Override
+    public void run() {
+      tracker.onReleased(image);
+    }
+  }
+
+  /**
+   * Counts the images of a reader that are out as frames, so that the reader is only closed once
+   * all of them have been released.
+   */
+  private static final class ImageTracker {
+    final ImageReader reader;
+    private int outstanding;
+    private boolean closing;
+
+    ImageTracker(ImageReader reader) {
+      this.reader = reader;
+    }
+
+    synchronized void onAcquired() {
+      outstanding++;
+    }
+
+    synchronized void onReleased(Image image) {
+      image.close();
+      outstanding--;
+      if (outstanding == 0) {
+        notifyAll();
+        if (closing) {
+          reader.close();
+        }
+      }
+    }
+
+    /**
+     * Closes the reader once every frame is released, waiting for that up to
+     * {@link #FRAME_RELEASE_TIMEOUT_MS}. Frames still out after that close the reader themselves,
+     * when the last of them is released.
+     */
+    void close() {
+      synchronized (this) {
+        long deadline = System.currentTimeMillis() + FRAME_RELEASE_TIMEOUT_MS;
+        long remaining;
+        while (outstanding > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+          try {
+            wait(remaining);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+        if (outstanding > 0) {
+          Log.w(TAG, outstanding + " frames still in use; closing the image reader later");
+          closing = true;
+          return;
+        }
+      }
+      reader.close();
+    }
+  }
+
+  private CameraDevice openDevice(String cameraId) throws CameraAccessException, IOException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final CameraDevice[] opened = new CameraDevice[1];
+    cameraService.openCamera(cameraId, new CameraDevice.StateCallback() {
+      @Override
+      public void onOpened(CameraDevice camera) {
+        opened[0] = camera;
+        latch.countDown();
+      }
+
+      @Override
+      public void onDisconnected(CameraDevice camera) {
+        Log.w(TAG, "Camera " + camera.getId() + " disconnected");
+        camera.close();
+        onLost(camera);
+      }
+
+      @Override
+      public void onError(CameraDevice camera, int error) {
+        Log.w(TAG, "Camera " + camera.getId() + " error " + error);
+        camera.close();
+        onLost(camera);
+      }
+
+      private void onLost(CameraDevice camera) {
+        if (latch.getCount() > 0) {
+          // Still opening; open() fails.
+          latch.countDown();
+          return;
+        }
+        synchronized (Camera2FrameSource.this) {
+          if (device != camera) {
+            // Closed already
+            return;
+          }
+          // Nothing may be sent to the session any more; close() clears the rest.
+          previewing = false;
+        }
+        ErrorCallback theErrorCallback = errorCallback;
+        if (theErrorCallback != null) {
+          theErrorCallback.onCameraLost();
+        }
+      }
+    }, backgroundHandler);
+    await(latch, "Timed out opening camera " + cameraId);
+    if (opened[0] == null) {
+      throw new IOException("Camera " + cameraId + " failed to open");
+    }
+    return opened[0];
+  }
+
+  private CameraCaptureSession createSession(List<Surface> outputs)
+      throws CameraAccessException, IOException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final CameraCaptureSession[] configured = new CameraCaptureSession[1];
+    device.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+      @Override
+      public void onConfigured(CameraCaptureSession session) {
+        configured[0] = session;
+        latch.countDown();
+      }
+
+      @Override
+      public void onConfigureFailed(CameraCaptureSession session) {
+        latch.countDown();
+      }
+    }, backgroundHandler);
+    await(latch, "Timed out configuring capture session");
+    if (configured[0] == null) {
+      throw new IOException("Capture session configuration failed");
+    }
+    return configured[0];
+  }
+
+  private static void await(CountDownLatch latch, String timeoutMessage) throws IOException {
+    try {
+      if (!latch.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+        throw new IOException(timeoutMessage);
+      }
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the camera");
+    }
+  }
+
+  private void startBackgroundThread() {
+    if (backgroundThread == null) {
+      backgroundThread = new HandlerThread("Camera2FrameSource");
+      backgroundThread.start();
+      backgroundHandler = new Handler(backgroundThread.getLooper());
+    }
+  }
+
+  private void stopBackgroundThread() {
+    if (backgroundThread != null) {
+      backgroundThread.quitSafely();
+      backgroundThread = null;
+      backgroundHandler = null;
+    }
+  }
+
+  private static String selectCameraId(android.hardware.camera2.CameraManager cameraService,
+                                       int requestedCameraId) throws CameraAccessException {
+    String[] cameraIds = cameraService.getCameraIdList();
+    if (cameraIds.length == 0) {
+      Log.w(TAG, "No cameras!");
+      return null;
+    }
+    if (requestedCameraId >= 0) {
+      String requested = String.valueOf(requestedCameraId);
+      for (String cameraId : cameraIds) {
+        if (cameraId.equals(requested)) {
+          return cameraId;
+        }
+      }
+      Log.w(TAG, "Requested camera does not exist: " + requestedCameraId);
+      return null;
+    }
+    for (String cameraId : cameraIds) {
+      Integer facing = cameraService.getCameraCharacteristics(cameraId)
+          .get(CameraCharacteristics.LENS_FACING);
+      if (facing != null && facing == CameraMetadata.LENS_FACING_BACK) {
+        return cameraId;
+      }
+    }
+    Log.i(TAG, "No camera facing back; returning camera " + cameraIds[0]);
+    return cameraIds[0];
+  }
+
+  private Point findBestPreviewSize(String cameraId,
+                                    CameraCharacteristics characteristics,
+                                    Point screenResolution) {
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    // The preview surface and the image reader share one capture size, so it must suit both.
+    List<Size> surfaceSizes = Arrays.asList(map.getOutputSizes(SurfaceHolder.class));
+    List<Point> supportedSizes = new ArrayList<>();
+    for (Size size : map.getOutputSizes(ImageFormat.YUV_420_888)) {
+      if (surfaceSizes.contains(size)) {
+        supportedSizes.add(new Point(size.getWidth(), size.getHeight()));
+      }
+    }
+    return previewSizeSelector.select("camera2/" + cameraId, supportedSizes,
+        new Point(640, 480), screenResolution);
+  }
+
+  private static int findFocusMode(CameraCharacteristics characteristics) {
+    int[] modes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+    if (modes != null) {
+      for (int mode : modes) {
+        if (mode == CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_PICTURE) {
+          return mode;
+        }
+      }
+      for (int mode : modes) {
+        if (mode == CameraMetadata.CONTROL_AF_MODE_AUTO) {
+          return mode;
+        }
+      }
+    }
+    return CameraMetadata.CONTROL_AF_MODE_OFF;
+  }
+
+  private static Range<Integer> findOcrFpsRange(CameraCharacteristics characteristics) {
+    Range<Integer>[] ranges =
+        characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+    if (ranges == null) {
+      return null;
+    }
+    List<int[]> candidates = new ArrayList<>(ranges.length);
+    for (Range<Integer> range : ranges) {
+      candidates.add(new int[] {range.getLower(), range.getUpper()});
+    }
+    int[] best = CameraConfigurationUtils.findOcrFpsRange(candidates, 1);
+    return best == null ? null : new Range<>(best[0], best[1]);
+  }
+
+  private static FocusState toFocusState(Integer afState) {
+    if (afState == null) {
+      return FocusState.UNKNOWN;
+    }
+    switch (afState) {
+      case CameraMetadata.CONTROL_AF_STATE_PASSIVE_SCAN:
+      case CameraMetadata.CONTROL_AF_STATE_ACTIVE_SCAN:
+        return FocusState.SCANNING;
+      case CameraMetadata.CONTROL_AF_STATE_PASSIVE_FOCUSED:
+      case CameraMetadata.CONTROL_AF_STATE_FOCUSED_LOCKED:
+        return FocusState.FOCUSED;
+      case CameraMetadata.CONTROL_AF_STATE_PASSIVE_UNFOCUSED:
+      case CameraMetadata.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED:
+        return FocusState.UNFOCUSED;
+      default:
+        return FocusState.UNKNOWN;
+    }
+  }
+
+}
@@ -19,6 +19,7 @@ package com.daxslab.fotorecarga.camera;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.graphics.Point;
+import android.graphics.Rect;
 import android.hardware.Camera;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -30,6 +31,8 @@ import android.view.WindowManager;
 import com.daxslab.fotorecarga.camera.open.CameraFacing;
 import com.daxslab.fotorecarga.camera.open.OpenCamera;
 
+import java.util.List;
+
 /**
  * A class which deals with reading, parsing, and setting the camera parameters which are used to
  * configure the camera hardware.
@@ -40,15 +43,20 @@ final class CameraConfigurationManager {
   private static final String TAG = "CameraConfiguration";
 
   private final Context context;
+  private final PreviewSizeSelector previewSizeSelector;
   private int cwNeededRotation;
   private int cwRotationFromDisplayToCamera;
   private Point screenResolution;
   private Point cameraResolution;
   private Point bestPreviewSize;
   private Point previewSizeOnScreen;
+  private boolean meteringAreasSupported;
+  private float maxZoomRatio = 1.0f;
+  private float zoomRatio = 1.0f;
 
   CameraConfigurationManager(Context context) {
     this.context = context;
+    this.previewSizeSelector = new PreviewSizeSelector(context);
   }
 
   /**
@@ -122,9 +130,12 @@ final class CameraConfigurationManager {
     display.getSize(theScreenResolution);
     screenResolution = theScreenResolution;
     Log.i(TAG, "Screen resolution in current orientation: " + screenResolution);
-    cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
-    Log.i(TAG, "Camera resolution: " + cameraResolution);
-    bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolution);
+    Camera.Size defaultPreview = parameters.getPreviewSize();
+    Point defaultSize = defaultPreview == null ? null : new Point(defaultPreview.width, defaultPreview.height);
+    // Frames are delivered at the preview size, so both are the same point.
+    bestPreviewSize = previewSizeSelector.select("legacy/" + camera.getIndex(),
+            CameraConfigurationUtils.getSupportedPreviewSizes(parameters), defaultSize, screenResolution);
+    cameraResolution = bestPreviewSize;
     Log.i(TAG, "Best available preview size: " + bestPreviewSize);
 
     boolean isScreenPortrait = screenResolution.x < screenResolution.y;
@@ -185,6 +196,8 @@ final class CameraConfigurationManager {
 //        CameraConfigurationUtils.setMetering(parameters);
 //      }
 
+      // Frames are recognized a few times a second at most, so favour exposure time over frame rate.
+      CameraConfigurationUtils.setOcrPreviewFPS(parameters);
     }
 
     parameters.setPreviewSize(bestPreviewSize.x, bestPreviewSize.y);
@@ -194,6 +207,8 @@ final class CameraConfigurationManager {
     theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
 
     Camera.Parameters afterParameters = theCamera.getParameters();
+    maxZoomRatio = getZoomRatio(afterParameters, afterParameters.getMaxZoom());
+    zoomRatio = getZoomRatio(afterParameters, afterParameters.getZoom());
     Camera.Size afterSize = afterParameters.getPreviewSize();
     if (afterSize != null && (bestPreviewSize.x != afterSize.width || bestPreviewSize.y != afterSize.height)) {
       Log.w(TAG, "Camera said it supported preview size " + bestPreviewSize.x + 'x' + bestPreviewSize.y +
@@ -203,6 +218,71 @@ final class CameraConfigurationManager {
     }
   }
 
+  /**
+   * Points autofocus and auto-exposure at the given region of the preview, normally the framing
+   * rectangle, so that they optimize for the code rather than the whole scene. Cameras without
+   * focus areas keep focusing on the scene, which is centre-weighted on most drivers and so close
+   * enough; cameras without metering areas get exposure compensation instead, since the code is
+   * usually brighter than its surroundings.
+   *
+   * @param regionInPreview Region to focus and meter on, in preview coordinates.
+   */
+  void setRegionOfInterest(Camera camera, Rect regionInPreview) {
+    Camera.Parameters parameters = camera.getParameters();
+    if (parameters == null) {
+      return;
+    }
+    CameraConfigurationUtils.setFocusArea(parameters, regionInPreview, bestPreviewSize);
+    meteringAreasSupported =
+            CameraConfigurationUtils.setMetering(parameters, regionInPreview, bestPreviewSize);
+    if (!meteringAreasSupported) {
+      CameraConfigurationUtils.setBestExposure(parameters, getTorchState(camera));
+    }
+    try {
+      camera.setParameters(parameters);
+    } catch (RuntimeException re) {
+      // Some drivers advertise areas they then reject; the whole scene will have to do.
+      Log.w(TAG, "Camera rejected focus and metering areas", re);
+    }
+  }
+
+  float getMaxZoomRatio() {
+    return maxZoomRatio;
+  }
+
+  float getZoomRatio() {
+    return zoomRatio;
+  }
+
+  void setZoomRatio(Camera camera, float ratio) {
+    Camera.Parameters parameters = camera.getParameters();
+    if (parameters == null || !parameters.isZoomSupported()) {
+      return;
+    }
+    CameraConfigurationUtils.setZoom(parameters, ratio);
+    try {
+      camera.setParameters(parameters);
+      zoomRatio = getZoomRatio(parameters, parameters.getZoom());
+    } catch (RuntimeException re) {
+      Log.w(TAG, "Camera rejected zoom " + ratio, re);
+    }
+  }
+
+  private static float getZoomRatio(Camera.Parameters parameters, int zoomIndex) {
+    if (!parameters.isZoomSupported()) {
+      return 1.0f;
+    }
+    List<Integer> ratios = parameters.getZoomRatios();
+    if (ratios == null || zoomIndex < 0 || zoomIndex >= ratios.size()) {
+      return 1.0f;
+    }
+    return ratios.get(zoomIndex) / 100.0f;
+  }
+
+  void setTargetDigitHeight(int targetDigitHeight) {
+    previewSizeSelector.setTargetDigitHeight(targetDigitHeight);
+  }
+
   Point getBestPreviewSize() {
     return bestPreviewSize;
   }
@@ -245,6 +325,8 @@ final class CameraConfigurationManager {
   private void initializeTorch(Camera.Parameters parameters, SharedPreferences prefs, boolean safeMode) {
 //    boolean currentSetting = FrontLightMode.readPref(prefs) == FrontLightMode.ON;
 //    doSetTorch(parameters, currentSetting, safeMode);
+    // Start dark; AutoTorchController lights the card when frames turn out too dark to read.
+    doSetTorch(parameters, false, safeMode);
   }
 
   private void doSetTorch(Camera.Parameters parameters, boolean newSetting, boolean safeMode) {
@@ -253,6 +335,9 @@ final class CameraConfigurationManager {
 //    if (!safeMode && !prefs.getBoolean(PreferencesActivity.KEY_DISABLE_EXPOSURE, true)) {
 //      CameraConfigurationUtils.setBestExposure(parameters, newSetting);
 //    }
+    if (!safeMode && !meteringAreasSupported) {
+      CameraConfigurationUtils.setBestExposure(parameters, newSetting);
+    }
   }
 
 }
@@ -50,6 +50,7 @@ public final class CameraConfigurationUtils {
   private static final double MAX_ASPECT_DISTORTION = 0.15;
   private static final int MIN_FPS = 10;
   private static final int MAX_FPS = 20;
+  private static final int MAX_OCR_FPS = 30;
   private static final int AREA_PER_1000 = 400;
 
   private CameraConfigurationUtils() {
@@ -190,6 +191,104 @@ public final class CameraConfigurationUtils {
     }
   }
 
+  /**
+   * Focuses on the given region of the preview frame, typically the framing rectangle, so that
+   * autofocus optimizes for the code rather than the whole scene.
+   *
+   * @return Whether the camera supports focus areas; when it does not, nothing is changed.
+   */
+  public static boolean setFocusArea(Camera.Parameters parameters, Rect areaInPreview, Point previewSize) {
+    if (parameters.getMaxNumFocusAreas() > 0) {
+      List<Camera.Area> area = buildArea(areaInPreview, previewSize);
+      Log.i(TAG, "Setting focus area to : " + toString(area));
+      parameters.setFocusAreas(area);
+      return true;
+    }
+    Log.i(TAG, "Device does not support focus areas");
+    return false;
+  }
+
+  /**
+   * Meters exposure on the given region of the preview frame, typically the framing rectangle.
+   *
+   * @return Whether the camera supports metering areas; when it does not, nothing is changed.
+   */
+  public static boolean setMetering(Camera.Parameters parameters, Rect areaInPreview, Point previewSize) {
+    if (parameters.getMaxNumMeteringAreas() > 0) {
+      List<Camera.Area> area = buildArea(areaInPreview, previewSize);
+      Log.i(TAG, "Setting metering area to : " + toString(area));
+      parameters.setMeteringAreas(area);
+      return true;
+    }
+    Log.i(TAG, "Device does not support metering areas");
+    return false;
+  }
+
+  /**
+   * Maps a rectangle in preview coordinates to the -1000..1000 camera area coordinate space.
+   */
+  private static List<Camera.Area> buildArea(Rect areaInPreview, Point previewSize) {
+    Rect area = new Rect(toAreaCoordinate(areaInPreview.left, previewSize.x),
+                         toAreaCoordinate(areaInPreview.top, previewSize.y),
+                         toAreaCoordinate(areaInPreview.right, previewSize.x),
+                         toAreaCoordinate(areaInPreview.bottom, previewSize.y));
+    return Collections.singletonList(new Camera.Area(area, 1000));
+  }
+
+  private static int toAreaCoordinate(int value, int size) {
+    int coordinate = value * 2000 / size - 1000;
+    return Math.max(-1000, Math.min(1000, coordinate));
+  }
+
+  /**
+   * Sets a preview frame rate range suited to OCR: frames are only recognized a few times per
+   * second, so the range should let auto-exposure lengthen exposures in dim light (lowest minimum)
+   * without going above {@value #MAX_OCR_FPS} fps.
+   */
+  public static void setOcrPreviewFPS(Camera.Parameters parameters) {
+    List<int[]> supportedPreviewFpsRanges = parameters.getSupportedPreviewFpsRange();
+    Log.i(TAG, "Supported FPS ranges: " + toString(supportedPreviewFpsRanges));
+    int[] suitableFPSRange = findOcrFpsRange(supportedPreviewFpsRanges, 1000);
+    if (suitableFPSRange == null) {
+      Log.i(TAG, "No suitable FPS range?");
+      return;
+    }
+    int[] currentFpsRange = new int[2];
+    parameters.getPreviewFpsRange(currentFpsRange);
+    if (Arrays.equals(currentFpsRange, suitableFPSRange)) {
+      Log.i(TAG, "FPS range already set to " + Arrays.toString(suitableFPSRange));
+    } else {
+      Log.i(TAG, "Setting FPS range to " + Arrays.toString(suitableFPSRange));
+      parameters.setPreviewFpsRange(suitableFPSRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                                    suitableFPSRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+    }
+  }
+
+  /**
+   * Picks, among {min, max} frame rate ranges, the one with the lowest minimum of at least
+   * {@value #MIN_FPS} fps and a maximum of at most {@value #MAX_OCR_FPS} fps, preferring the higher
+   * maximum on ties.
+   *
+   * @param ranges Supported ranges; may be null.
+   * @param unitsPerFps Scale of the range values: 1000 for the Camera API, 1 for camera2.
+   * @return The chosen range, or null if none qualifies.
+   */
+  static int[] findOcrFpsRange(Collection<int[]> ranges, int unitsPerFps) {
+    if (ranges == null) {
+      return null;
+    }
+    int[] best = null;
+    for (int[] range : ranges) {
+      if (range[0] < MIN_FPS * unitsPerFps || range[1] > MAX_OCR_FPS * unitsPerFps) {
+        continue;
+      }
+      if (best == null || range[0] < best[0] || (range[0] == best[0] && range[1] > best[1])) {
+        best = range;
+      }
+    }
+    return best;
+  }
+
   private static List<Camera.Area> buildMiddleArea(int areaPer1000) {
     return Collections.singletonList(
         new Camera.Area(new Rect(-areaPer1000, -areaPer1000, areaPer1000, areaPer1000), 1));
@@ -274,24 +373,46 @@ public final class CameraConfigurationUtils {
   }
 
   public static Point findBestPreviewSizeValue(Camera.Parameters parameters, Point screenResolution) {
+    Camera.Size defaultPreview = parameters.getPreviewSize();
+    Point defaultSize = defaultPreview == null ? null : new Point(defaultPreview.width, defaultPreview.height);
+    return findBestPreviewSizeValue(getSupportedPreviewSizes(parameters), defaultSize, screenResolution);
+  }
 
+  /**
+   * @return The preview sizes supported by the camera; empty if the device does not report any.
+   */
+  public static List<Point> getSupportedPreviewSizes(Camera.Parameters parameters) {
     List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
     if (rawSupportedSizes == null) {
       Log.w(TAG, "Device returned no supported preview sizes; using default");
-      Camera.Size defaultSize = parameters.getPreviewSize();
-      if (defaultSize == null) {
-        throw new IllegalStateException("Parameters contained no preview size!");
-      }
-      return new Point(defaultSize.width, defaultSize.height);
+      return Collections.emptyList();
+    }
+    List<Point> supportedSizes = new ArrayList<>(rawSupportedSizes.size());
+    for (Camera.Size size : rawSupportedSizes) {
+      supportedSizes.add(new Point(size.width, size.height));
     }
+    return supportedSizes;
+  }
+
+  /**
+   * Camera-API-independent version of {@link #findBestPreviewSizeValue(Camera.Parameters, Point)}.
+   *
+   * @param supportedSizes Preview sizes supported by the camera.
+   * @param defaultSize Size to fall back on when none is suitable; may be null.
+   * @param screenResolution Screen resolution in the current orientation.
+   * @return The chosen preview size.
+   */
+  public static Point findBestPreviewSizeValue(List<Point> supportedSizes,
+                                               Point defaultSize,
+                                               Point screenResolution) {
 
     // Sort by size, descending
-    List<Camera.Size> supportedPreviewSizes = new ArrayList<>(rawSupportedSizes);
-    Collections.sort(supportedPreviewSizes, new Comparator<Camera.Size>() {
+    List<Point> supportedPreviewSizes = new ArrayList<>(supportedSizes);
+    Collections.sort(supportedPreviewSizes, new Comparator<Point>() {
       @Override
-      public int compare(Camera.Size a, Camera.Size b) {
-        int aPixels = a.height * a.width;
-        int bPixels = b.height * b.width;
+      public int compare(Point a, Point b) {
+        int aPixels = a.y * a.x;
+        int bPixels = b.y * b.x;
         if (bPixels < aPixels) {
           return -1;
         }
@@ -304,22 +425,20 @@ public final class CameraConfigurationUtils {
 
     if (Log.isLoggable(TAG, Log.INFO)) {
       StringBuilder previewSizesString = new StringBuilder();
-      for (Camera.Size supportedPreviewSize : supportedPreviewSizes) {
-        previewSizesString.append(supportedPreviewSize.width).append('x')
-            .append(supportedPreviewSize.height).append(' ');
+      for (Point supportedPreviewSize : supportedPreviewSizes) {
+        previewSizesString.append(supportedPreviewSize.x).append('x')
+            .append(supportedPreviewSize.y).append(' ');
       }
       Log.i(TAG, "Supported preview sizes: " + previewSizesString);
     }
 
-    double screenAspectRatio = (double) screenResolution.x / (double) screenResolution.y;
-
     // Remove sizes that are unsuitable
-    Iterator<Camera.Size> it = supportedPreviewSizes.iterator();
+    Iterator<Point> it = supportedPreviewSizes.iterator();
     while (it.hasNext()) {
-      Camera.Size supportedPreviewSize = it.next();
-      int realWidth = supportedPreviewSize.width;
-      int realHeight = supportedPreviewSize.height;
-      if (realWidth * realHeight < MIN_PREVIEW_PIXELS) {
+      Point supportedPreviewSize = it.next();
+      int realWidth = supportedPreviewSize.x;
+      int realHeight = supportedPreviewSize.y;
+      if (!isSuitablePreviewSize(supportedPreviewSize, screenResolution)) {
         it.remove();
         continue;
       }
@@ -327,13 +446,6 @@ public final class CameraConfigurationUtils {
       boolean isCandidatePortrait = realWidth < realHeight;
       int maybeFlippedWidth = isCandidatePortrait ? realHeight : realWidth;
       int maybeFlippedHeight = isCandidatePortrait ? realWidth : realHeight;
-      double aspectRatio = (double) maybeFlippedWidth / (double) maybeFlippedHeight;
-      double distortion = Math.abs(aspectRatio - screenAspectRatio);
-      if (distortion > MAX_ASPECT_DISTORTION) {
-        it.remove();
-        continue;
-      }
-
       if (maybeFlippedWidth == screenResolution.x && maybeFlippedHeight == screenResolution.y) {
         Point exactPoint = new Point(realWidth, realHeight);
         Log.i(TAG, "Found preview size exactly matching screen size: " + exactPoint);
@@ -345,20 +457,33 @@ public final class CameraConfigurationUtils {
     // of the additional computation needed. We're likely to get here on newer Android 4+ devices, where
     // the CPU is much more powerful.
     if (!supportedPreviewSizes.isEmpty()) {
-      Camera.Size largestPreview = supportedPreviewSizes.get(0);
-      Point largestSize = new Point(largestPreview.width, largestPreview.height);
+      Point largestSize = new Point(supportedPreviewSizes.get(0));
       Log.i(TAG, "Using largest suitable preview size: " + largestSize);
       return largestSize;
     }
 
     // If there is nothing at all suitable, return current preview size
-    Camera.Size defaultPreview = parameters.getPreviewSize();
-    if (defaultPreview == null) {
+    if (defaultSize == null) {
       throw new IllegalStateException("Parameters contained no preview size!");
     }
-    Point defaultSize = new Point(defaultPreview.width, defaultPreview.height);
     Log.i(TAG, "No suitable preview sizes, using default: " + defaultSize);
-    return defaultSize;
+    return new Point(defaultSize);
+  }
+
+  /**
+   * @return Whether a preview size is large enough to be usable and close enough to the aspect
+   *         ratio of the screen, in either orientation, to be shown without visible distortion.
+   */
+  static boolean isSuitablePreviewSize(Point size, Point screenResolution) {
+    if (size.x * size.y < MIN_PREVIEW_PIXELS) {
+      return false;
+    }
+    boolean isCandidatePortrait = size.x < size.y;
+    int maybeFlippedWidth = isCandidatePortrait ? size.y : size.x;
+    int maybeFlippedHeight = isCandidatePortrait ? size.x : size.y;
+    double aspectRatio = (double) maybeFlippedWidth / (double) maybeFlippedHeight;
+    double screenAspectRatio = (double) screenResolution.x / (double) screenResolution.y;
+    return Math.abs(aspectRatio - screenAspectRatio) <= MAX_ASPECT_DISTORTION;
   }
 
   private static String findSettableValue(String name,
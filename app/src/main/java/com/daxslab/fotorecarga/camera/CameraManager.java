@@ -20,28 +20,25 @@ package com.daxslab.fotorecarga.camera;
 import android.content.Context;
 import android.graphics.Point;
 import android.graphics.Rect;
-import android.hardware.Camera;
+import android.os.Build;
 import android.os.Handler;
 import android.util.Log;
 import android.view.SurfaceHolder;
-//import com.google.zxing.PlanarYUVLuminanceSource;
-//import com.google.zxing.client.android.camera.open.OpenCamera;
-//import com.google.zxing.client.android.camera.open.OpenCameraInterface;
-import com.daxslab.fotorecarga.camera.open.OpenCamera;
-import com.daxslab.fotorecarga.camera.open.OpenCameraInterface;
-import com.daxslab.fotorecarga.PlanarYUVLuminanceSource;
+import com.daxslab.fotorecarga.BoxArray;
+import com.daxslab.fotorecarga.LuminanceSource;
 
 import java.io.IOException;
 
 /**
- * This object wraps the Camera service object and expects to be the only one talking to it. The
+ * This object wraps the camera service and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
- * both preview and decoding.
+ * both preview and decoding. The actual camera API is hidden behind a {@link FrameSource}, chosen
+ * once per device: camera2 where the device has a full implementation of it, the original
+ * Camera API otherwise.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  * @edited-by ccesar@daxslab.com (Carlos Cesar Caballero)
  */
-@SuppressWarnings("deprecation") // camera APIs
 public final class CameraManager {
 
   private static final String TAG = CameraManager.class.getSimpleName();
@@ -51,27 +48,30 @@ public final class CameraManager {
   private static final int MAX_FRAME_WIDTH = 800; // originally 480
   private static final int MAX_FRAME_HEIGHT = 600; // originally 360
 
-  private final Context context;
-  private final CameraConfigurationManager configManager;
-  private OpenCamera camera;
-  private AutoFocusManager autoFocusManager;
+  private final FrameSource frameSource;
+  private final FrameSelector frameSelector;
+  private final AutoZoomController autoZoomController;
+  private final AutoTorchController autoTorchController;
   private Rect framingRect;
   private Rect framingRectInPreview;
   private boolean initialized;
-  private boolean previewing;
-  private int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
   private int requestedFramingRectWidth;
   private int requestedFramingRectHeight;
-  /**
-   * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
-   * clear the handler so it will only receive one message.
-   */
-  private final PreviewCallback previewCallback;
 
   public CameraManager(Context context) {
-    this.context = context;
-    this.configManager = new CameraConfigurationManager(context);
-    previewCallback = new PreviewCallback(configManager);
+    this.frameSource = createFrameSource(context);
+    this.frameSelector = new FrameSelector();
+    frameSource.setFrameCallback(frameSelector);
+    this.autoZoomController = new AutoZoomController(frameSource);
+    this.autoTorchController = new AutoTorchController(frameSource);
+    Log.i(TAG, "Using frame source " + frameSource.getClass().getSimpleName());
+  }
+
+  private static FrameSource createFrameSource(Context context) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2FrameSource.isSupported(context)) {
+      return new Camera2FrameSource(context);
+    }
+    return new LegacyFrameSource(context);
   }
 
   /**
@@ -81,94 +81,75 @@ public final class CameraManager {
    * @throws IOException Indicates the camera driver failed to open.
    */
   public synchronized void openDriver(SurfaceHolder holder) throws IOException {
-    OpenCamera theCamera = camera;
-    if (theCamera == null) {
-      theCamera = OpenCameraInterface.open(requestedCameraId);
-      if (theCamera == null) {
-        throw new IOException("Camera.open() failed to return object from driver");
-      }
-      camera = theCamera;
-    }
+    frameSource.open(holder);
 
     if (!initialized) {
       initialized = true;
-      configManager.initFromCameraParameters(theCamera);
       if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
         setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
         requestedFramingRectWidth = 0;
         requestedFramingRectHeight = 0;
       }
     }
+    updateRegionOfInterest();
+  }
 
-    Camera cameraObject = theCamera.getCamera();
-    Camera.Parameters parameters = cameraObject.getParameters();
-    String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
-    try {
-      configManager.setDesiredCameraParameters(theCamera, false);
-    } catch (RuntimeException re) {
-      // Driver failed
-      Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
-      Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
-      // Reset:
-      if (parametersFlattened != null) {
-        parameters = cameraObject.getParameters();
-        parameters.unflatten(parametersFlattened);
-        try {
-          cameraObject.setParameters(parameters);
-          configManager.setDesiredCameraParameters(theCamera, true);
-        } catch (RuntimeException re2) {
-          // Well, darn. Give up
-          Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
-        }
-      }
-    }
-    cameraObject.setPreviewDisplay(holder);
+  /**
+   * Sets the digit height, in preview pixels, the preview size is chosen for; lower values pick
+   * smaller previews. Applies from the next {@link #openDriver}.
+   */
+  public synchronized void setTargetDigitHeight(int targetDigitHeight) {
+    frameSource.setTargetDigitHeight(targetDigitHeight);
+  }
 
+  /**
+   * @param callback Hears of the camera being lost once open, on a camera thread.
+   */
+  public void setErrorCallback(FrameSource.ErrorCallback callback) {
+    frameSource.setErrorCallback(callback);
   }
 
   public synchronized boolean isOpen() {
-    return camera != null;
+    return frameSource.isOpen();
   }
 
   /**
-   * Closes the camera driver if still in use.
+   * Closes the camera driver if still in use. The frame source may wait for frames still being
+   * decoded, so it is closed outside this object's monitor, which the decoding threads take.
    */
-  public synchronized void closeDriver() {
-    if (camera != null) {
-      camera.getCamera().release();
-      camera = null;
+  public void closeDriver() {
+    synchronized (this) {
+      if (!frameSource.isOpen()) {
+        return;
+      }
+      // Kept frames first, since the frame source waits for its frames to be released.
+      frameSource.stopPreview();
+      frameSelector.clear();
+      autoZoomController.reset();
+      autoTorchController.reset();
       // Make sure to clear these each time we close the camera, so that any scanning rect
       // requested by intent is forgotten.
       framingRect = null;
       framingRectInPreview = null;
     }
+    frameSource.close();
+    // A frame captured just before the preview stopped may have been kept meanwhile.
+    frameSelector.clear();
   }
 
   /**
    * Asks the camera hardware to begin drawing preview frames to the screen.
    */
   public synchronized void startPreview() {
-    OpenCamera theCamera = camera;
-    if (theCamera != null && !previewing) {
-      theCamera.getCamera().startPreview();
-      previewing = true;
-      autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
-    }
+    frameSource.startPreview();
   }
 
   /**
    * Tells the camera to stop drawing preview frames.
    */
   public synchronized void stopPreview() {
-    if (autoFocusManager != null) {
-      autoFocusManager.stop();
-      autoFocusManager = null;
-    }
-    if (camera != null && previewing) {
-      camera.getCamera().stopPreview();
-      previewCallback.setHandler(null, 0);
-      previewing = false;
-    }
+    frameSource.stopPreview();
+    frameSelector.clear();
   }
 
   /**
@@ -176,37 +157,49 @@ public final class CameraManager {
    * @param newSetting if {@code true}, light should be turned on if currently off. And vice versa.
    */
   public synchronized void setTorch(boolean newSetting) {
-    OpenCamera theCamera = camera;
-    if (theCamera != null) {
-      if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
-        boolean wasAutoFocusManager = autoFocusManager != null;
-        if (wasAutoFocusManager) {
-          autoFocusManager.stop();
-          autoFocusManager = null;
-        }
-        configManager.setTorch(theCamera.getCamera(), newSetting);
-        if (wasAutoFocusManager) {
-          autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
-          autoFocusManager.start();
-        }
-      }
+    frameSource.setTorch(newSetting);
+  }
+
+  /**
+   * Asks the camera to focus again on the framing rectangle right away, for instance because
+   * recognition confidence dropped.
+   */
+  public synchronized void requestRefocus() {
+    frameSource.refocus();
+  }
+
+  /**
+   * Reports whether the last recognized frame was readable, which steers how often the camera
+   * refocuses.
+   */
+  public synchronized void reportRecognitionOutcome(boolean readable) {
+    frameSource.onRecognitionOutcome(readable);
+  }
+
+  /**
+   * Zooms the camera in or out so that the recognized code line fills most of the framing
+   * rectangle.
+   *
+   * @param wordBoundingBoxes Word bounding boxes of a recognized frame, relative to the framing
+   *                          rectangle.
+   */
+  public synchronized void reportWordBoundingBoxes(BoxArray wordBoundingBoxes) {
+    Rect rect = getFramingRectInPreview();
+    if (rect != null) {
+      autoZoomController.onWordsRecognized(wordBoundingBoxes, rect.width());
     }
   }
 
   /**
-   * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-   * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-   * respectively.
+   * A single preview frame will be returned to the handler supplied. The data will arrive as a
+   * {@link Frame} in the message.obj field. It is the best of the frames captured since the last
+   * request, or the next one if none was kept.
    *
    * @param handler The handler to send the message to.
    * @param message The what field of the message to be sent.
    */
   public synchronized void requestPreviewFrame(Handler handler, int message) {
-    OpenCamera theCamera = camera;
-    if (theCamera != null && previewing) {
-      previewCallback.setHandler(handler, message);
-      theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
-    }
+    frameSelector.requestFrame(handler, message);
   }
 
   /**
@@ -218,39 +211,50 @@ public final class CameraManager {
    */
   public synchronized Rect getFramingRect() {
     if (framingRect == null) {
-      if (camera == null) {
+      if (!frameSource.isOpen()) {
         return null;
       }
-      Point screenResolution = configManager.getScreenResolution();
+      Point screenResolution = frameSource.getScreenResolution();
       if (screenResolution == null) {
         // Called early, before init even finished
         return null;
       }
 
-      //int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
-      //int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
-
-      int width = screenResolution.x * 3/5;
-      if (width < MIN_FRAME_WIDTH) {
-        width = MIN_FRAME_WIDTH;
-      } else if (width > MAX_FRAME_WIDTH) {
-        width = MAX_FRAME_WIDTH;
-      }
-      int height = screenResolution.y * 1/5;
-      if (height < MIN_FRAME_HEIGHT) {
-        height = MIN_FRAME_HEIGHT;
-      } else if (height > MAX_FRAME_HEIGHT) {
-        height = MAX_FRAME_HEIGHT;
-      }
-
-      int leftOffset = (screenResolution.x - width) / 2;
-      int topOffset = (screenResolution.y - height) / 2;
-      framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
+      framingRect = computeFramingRect(screenResolution);
       Log.d(TAG, "Calculated framing rect: " + framingRect);
     }
     return framingRect;
   }
 
+  /**
+   * Computes the default framing rect for a screen, before any manual override. Also used to
+   * size the preview before the camera is configured.
+   *
+   * @param screenResolution Screen resolution in the current orientation.
+   * @return The rectangle to draw on screen in window coordinates.
+   */
+  static Rect computeFramingRect(Point screenResolution) {
+    //int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
+    //int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
+
+    int width = screenResolution.x * 3/5;
+    if (width < MIN_FRAME_WIDTH) {
+      width = MIN_FRAME_WIDTH;
+    } else if (width > MAX_FRAME_WIDTH) {
+      width = MAX_FRAME_WIDTH;
+    }
+    int height = screenResolution.y * 1/5;
+    if (height < MIN_FRAME_HEIGHT) {
+      height = MIN_FRAME_HEIGHT;
+    } else if (height > MAX_FRAME_HEIGHT) {
+      height = MAX_FRAME_HEIGHT;
+    }
+
+    int leftOffset = (screenResolution.x - width) / 2;
+    int topOffset = (screenResolution.y - height) / 2;
+    return new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
+  }
+
   private static int findDesiredDimensionInRange(int resolution, int hardMin, int hardMax) {
     int dim = 5 * resolution / 8; // Target 5/8 of each dimension
     if (dim < hardMin) {
@@ -275,8 +279,8 @@ public final class CameraManager {
         return null;
       }
       Rect rect = new Rect(framingRect);
-      Point cameraResolution = configManager.getCameraResolution();
-      Point screenResolution = configManager.getScreenResolution();
+      Point cameraResolution = frameSource.getPreviewSize();
+      Point screenResolution = frameSource.getScreenResolution();
       if (cameraResolution == null || screenResolution == null) {
         // Called early, before init even finished
         return null;
@@ -298,7 +302,7 @@ public final class CameraManager {
    * @param cameraId camera ID of the camera to use. A negative value means "no preference".
    */
   public synchronized void setManualCameraId(int cameraId) {
-    requestedCameraId = cameraId;
+    frameSource.setManualCameraId(cameraId);
   }
 
   /**
@@ -310,7 +314,7 @@ public final class CameraManager {
    */
   public synchronized void setManualFramingRect(int width, int height) {
     if (initialized) {
-      Point screenResolution = configManager.getScreenResolution();
+      Point screenResolution = frameSource.getScreenResolution();
       if (width > screenResolution.x) {
         width = screenResolution.x;
       }
@@ -322,6 +326,7 @@ public final class CameraManager {
       framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
       Log.d(TAG, "Calculated manual framing rect: " + framingRect);
       framingRectInPreview = null;
+      updateRegionOfInterest();
     } else {
       requestedFramingRectWidth = width;
       requestedFramingRectHeight = height;
@@ -331,39 +336,58 @@ public final class CameraManager {
   }
 
   /**
-   * A factory method to build the appropriate LuminanceSource object based on the format
-   * of the preview buffers, as described by Camera.Parameters.
+   * Points autofocus and auto-exposure at the framing rectangle, where the code is.
+   */
+  private void updateRegionOfInterest() {
+    Rect rect = getFramingRectInPreview();
+    if (rect != null) {
+      frameSource.setRegionOfInterest(rect);
+      frameSelector.setRegion(rect);
+    }
+  }
+
+  /**
+   * Turns the torch on or off depending on how bright the framing rectangle has been lately.
+   *
+   * @param source Luminance of the framing rectangle of the newest frame, as built by
+   *               {@link #buildLuminanceSource}.
+   */
+  public void reportLuminance(LuminanceSource source) {
+    autoTorchController.onLuminance(source);
+  }
+
+  /**
+   * @return Whether the framing rectangle has lately been dark enough for frames to be noisy.
+   */
+  public boolean isLowLight() {
+    return autoTorchController.isLowLight();
+  }
+
+  /**
+   * A factory method to build the appropriate LuminanceSource object over the framing rectangle
+   * of a preview frame.
    *
-   * @param data A preview frame.
-   * @param width The width of the image.
-   * @param height The height of the image.
-   * @return A PlanarYUVLuminanceSource instance.
+   * @param frame A preview frame.
+   * @return A LuminanceSource instance, or null if the framing rectangle is not known yet.
    */
-  public PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height) {
+  public LuminanceSource buildLuminanceSource(Frame frame) {
     Rect rect = getFramingRectInPreview();
     if (rect == null) {
       return null;
     }
-    // Go ahead and assume it's YUV rather than die.
-    return new PlanarYUVLuminanceSource(data, width, height, rect.left, rect.top,
-            rect.width(), rect.height(), false);
+    return frame.buildLuminanceSource(rect.left, rect.top, rect.width(), rect.height());
   }
 
 
   /**
-   * A single preview frame will be returned to the handler supplied. The data will arrive as byte[]
-   * in the message.obj field, with width and height encoded as message.arg1 and message.arg2,
-   * respectively.
+   * A single preview frame will be returned to the handler supplied. The data will arrive as a
+   * {@link Frame} in the message.obj field.
    *
    * @param handler The handler to send the message to.
    * @param message The what field of the message to be sent.
    */
   public synchronized void requestOcrDecode(Handler handler, int message) {
-    Camera theCamera = camera.getCamera();
-    if (theCamera != null && previewing) {
-      previewCallback.setHandler(handler, message);
-      theCamera.setOneShotPreviewCallback(previewCallback);
-    }
+    frameSelector.requestFrame(handler, message);
   }
 
-}
\ No newline at end of file
+}
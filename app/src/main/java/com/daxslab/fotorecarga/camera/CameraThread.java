@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * Runs the slow parts of the camera lifecycle (opening and configuring the camera, starting and
+ * stopping the preview, closing it) on a dedicated thread, so none of them blocks the main
+ * thread. Requests run one at a time in the order they were made, so a close always follows the
+ * open before it. The original Camera API also delivers its callbacks on this thread, since the
+ * camera is opened on it.
+ *
+ * Callbacks are called on the main thread.
+ */
+public final class CameraThread {
+
+  private static final String TAG = CameraThread.class.getSimpleName();
+
+  public interface OpenCallback {
+
+    void onOpened();
+
+    void onOpenFailed(Exception e);
+  }
+
+  public interface CloseCallback {
+
+    void onClosed();
+  }
+
+  public interface LostCallback {
+
+    /** The camera was lost after it was opened, and has been closed; it may be opened again. */
+    void onCameraLost();
+  }
+
+  private final CameraManager cameraManager;
+  private final HandlerThread thread;
+  private final Handler handler;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+  public CameraThread(CameraManager cameraManager) {
+    this.cameraManager = cameraManager;
+    thread = new HandlerThread("Camera");
+    thread.start();
+    handler = new Handler(thread.getLooper());
+  }
+
+  /**
+   * @param callback Told on the main thread when the camera is lost, e.g. to another app, once
+   *                 the camera has been closed on this thread.
+   */
+  public void setLostCallback(final LostCallback callback) {
+    cameraManager.setErrorCallback(new FrameSource.ErrorCallback() {
+      @Override
+      public void onCameraLost() {
+        handler.post(new Runnable() {
+          @Override
+          public void run() {
+            cameraManager.closeDriver();
+            mainHandler.post(new Runnable() {
+              @Override
+              public void run() {
+                callback.onCameraLost();
+              }
+            });
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Opens the camera driver, unless it is open already, and has it draw into the holder.
+   */
+  public void open(final SurfaceHolder holder, final OpenCallback callback) {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        Exception failure = null;
+        try {
+          cameraManager.openDriver(holder);
+        } catch (IOException | RuntimeException e) {
+          Log.w(TAG, "Could not open the camera", e);
+          failure = e;
+        }
+        final Exception result = failure;
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (result == null) {
+              callback.onOpened();
+            } else {
+              callback.onOpenFailed(result);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  public void startPreview() {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          cameraManager.startPreview();
+        } catch (RuntimeException e) {
+          Log.w(TAG, "Could not start the preview", e);
+        }
+      }
+    });
+  }
+
+  public void stopPreview() {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        cameraManager.stopPreview();
+      }
+    });
+  }
+
+  /**
+   * @param callback Called once the camera has been closed; may be null.
+   */
+  public void close(final CloseCallback callback) {
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        cameraManager.closeDriver();
+        if (callback != null) {
+          mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+              callback.onClosed();
+            }
+          });
+        }
+      }
+    });
+  }
+
+  /**
+   * Stops the thread once the requests already made have run.
+   */
+  public void quit() {
+    // Like quitSafely(), which needs API 18
+    handler.post(new Runnable() {
+      @Override
+      public void run() {
+        thread.quit();
+      }
+    });
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+/**
+ * Enumeration of the autofocus states a preview frame may have been captured in.
+ */
+public enum FocusState {
+
+  UNKNOWN,   // the camera does not report focus state for this frame
+  SCANNING,  // the lens was moving
+  FOCUSED,   // the lens was locked and the scene reported sharp
+  UNFOCUSED; // the lens was locked but focusing failed
+
+  /**
+   * How long a frame request may be held back waiting for the lens to settle before a frame is
+   * delivered anyway, so that a camera that keeps hunting cannot stall recognition.
+   */
+  static final long MAX_LOCK_WAIT_MS = 1000L;
+
+  /**
+   * @return Whether the lens was still when a frame in this state was captured, so that the frame
+   *         is worth decoding. Frames of unknown state are assumed to be, as on fixed-focus cameras.
+   */
+  public boolean isLocked() {
+    return this != SCANNING;
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import com.daxslab.fotorecarga.ByteBufferLuminanceSource;
+import com.daxslab.fotorecarga.LuminanceSource;
+import com.daxslab.fotorecarga.PlanarYUVLuminanceSource;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single preview frame delivered by a {@link FrameSource}, together with the capture metadata
+ * the decoder cares about. The luminance plane is either a packed NV21 array (legacy camera API)
+ * or a possibly strided {@link ByteBuffer} owned by the camera stack (camera2 API).
+ *
+ * Frames are backed by pooled camera buffers and must be handed back with {@link #release()} once
+ * decoding is done, so the camera can reuse the memory.
+ */
+public final class Frame {
+
+  private final byte[] data;
+  private final ByteBuffer plane;
+  private final int width;
+  private final int height;
+  private final int rowStride;
+  private final int pixelStride;
+  private final long timestamp;
+  private final FocusState focusState;
+  private Runnable releaser;
+
+  Frame(byte[] data, int width, int height, long timestamp, FocusState focusState,
+        Runnable releaser) {
+    this.data = data;
+    this.plane = null;
+    this.width = width;
+    this.height = height;
+    this.rowStride = width;
+    this.pixelStride = 1;
+    this.timestamp = timestamp;
+    this.focusState = focusState;
+    this.releaser = releaser;
+  }
+
+  Frame(ByteBuffer plane, int width, int height, int rowStride, int pixelStride, long timestamp,
+        FocusState focusState, Runnable releaser) {
+    this.data = null;
+    this.plane = plane;
+    this.width = width;
+    this.height = height;
+    this.rowStride = rowStride;
+    this.pixelStride = pixelStride;
+    this.timestamp = timestamp;
+    this.focusState = focusState;
+    this.releaser = releaser;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return Capture time in nanoseconds. Sensor timestamps for camera2 frames, otherwise the
+   *         {@link System#nanoTime()} at which the frame was delivered.
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  public FocusState getFocusState() {
+    return focusState;
+  }
+
+  /**
+   * Builds a luminance source over the given rectangle of this frame without copying pixels.
+   *
+   * @param left The left coordinate of the crop.
+   * @param top The top coordinate of the crop.
+   * @param cropWidth The width of the crop.
+   * @param cropHeight The height of the crop.
+   * @return A LuminanceSource over the cropped luminance plane.
+   */
+  public LuminanceSource buildLuminanceSource(int left, int top, int cropWidth, int cropHeight) {
+    if (data != null) {
+      return new PlanarYUVLuminanceSource(data, width, height, left, top, cropWidth, cropHeight,
+          false);
+    }
+    return new ByteBufferLuminanceSource(plane, width, height, rowStride, pixelStride, left, top,
+        cropWidth, cropHeight);
+  }
+
+  /**
+   * Hands the underlying buffer back to the camera. The frame and any luminance source built from
+   * it must not be used afterwards. Calling this more than once has no effect.
+   */
+  public synchronized void release() {
+    Runnable theReleaser = releaser;
+    releaser = null;
+    if (theReleaser != null) {
+      theReleaser.run();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return width + "x" + height + " @" + timestamp + ' ' + focusState;
+  }
+
+}
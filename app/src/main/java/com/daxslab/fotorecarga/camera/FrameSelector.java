@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.graphics.Rect;
+import android.os.Handler;
+
+import com.daxslab.fotorecarga.LuminanceSource;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the best few of the frames streamed by a {@link FrameSource} while the decoder is busy,
+ * and hands out the best one when the decoder asks for a frame, so that a sharp frame arriving
+ * mid-recognition is not lost.
+ *
+ * Frames are scored on the framing rectangle by cheap metrics: sharpness (mean gradient),
+ * contrast (standard deviation), glare (share of saturated pixels) and the focus state at
+ * capture. Frames captured while the lens was moving are not kept at all. Candidates older than
+ * {@link #MAX_CANDIDATE_AGE_MS} are dropped, since the card has likely moved since.
+ *
+ * Kept frames hold camera buffers, so at most {@link #CAPACITY} are kept and every frame that is
+ * dropped is released straight away.
+ *
+ * Continuous recognition and a single shot may both wait for a frame; requests are served in the
+ * order they were made.
+ */
+final class FrameSelector implements FrameSource.FrameCallback {
+
+  /** Most frames kept at once. */
+  static final int CAPACITY = 3;
+  /**
+   * Buffers a frame source pools: the kept frames, one being decoded by continuous recognition and
+   * one by a single shot, and one being filled.
+   */
+  static final int POOL_SIZE = CAPACITY + 3;
+
+  private static final long MAX_CANDIDATE_AGE_MS = 700L;
+  private static final int SAMPLE_STEP = 4;
+  private static final int SATURATION_THRESHOLD = 250;
+  /** Standard deviation from which contrast no longer adds to the score. */
+  private static final float FULL_CONTRAST = 40.0f;
+  /** Share of saturated samples at which a frame scores nothing. */
+  private static final float MAX_GLARE = 0.05f;
+  private static final float UNFOCUSED_WEIGHT = 0.5f;
+
+  private final Frame[] frames = new Frame[CAPACITY];
+  private final float[] scores = new float[CAPACITY];
+  private final long[] arrivals = new long[CAPACITY];
+  private int count;
+  private Rect region;
+  // Waiting for a frame, oldest first
+  private final ArrayDeque<Request> requests = new ArrayDeque<>();
+  private byte[] row;
+
+  /**
+   * @param regionInPreview The framing rectangle in preview coordinates, where frames are scored.
+   */
+  synchronized void setRegion(Rect regionInPreview) {
+    region = new Rect(regionInPreview);
+  }
+
+  /**
+   * Sends the best kept frame to the handler as the obj of a message, or, if none is kept, the
+   * next suitable frame to arrive.
+   *
+   * @param handler The handler to send the message to.
+   * @param message The what field of the message to be sent.
+   */
+  synchronized void requestFrame(Handler handler, int message) {
+    long now = System.currentTimeMillis();
+    dropStale(now);
+    int best = -1;
+    for (int i = 0; i < count; i++) {
+      if (best < 0 || scores[i] > scores[best]) {
+        best = i;
+      }
+    }
+    if (best >= 0) {
+      Frame frame = frames[best];
+      remove(best);
+      send(handler, message, frame);
+    } else {
+      requests.add(new Request(handler, message, now));
+    }
+  }
+
+  @Override
+  public synchronized void onFrame(Frame frame) {
+    long now = System.currentTimeMillis();
+    dropStale(now);
+    boolean locked = frame.getFocusState().isLocked();
+    Request request = requests.peek();
+    if (request != null) {
+      // Nothing better was kept, or the request would have been served already.
+      if (locked || now - request.time >= FocusState.MAX_LOCK_WAIT_MS) {
+        requests.remove();
+        send(request.handler, request.message, frame);
+        return;
+      }
+    }
+    if (!locked || region == null) {
+      frame.release();
+      return;
+    }
+
+    float score = score(frame);
+    if (count < CAPACITY) {
+      frames[count] = frame;
+      scores[count] = score;
+      arrivals[count] = now;
+      count++;
+      return;
+    }
+    int worst = 0;
+    for (int i = 1; i < count; i++) {
+      if (scores[i] < scores[worst]) {
+        worst = i;
+      }
+    }
+    if (score <= scores[worst]) {
+      frame.release();
+    } else {
+      frames[worst].release();
+      frames[worst] = frame;
+      scores[worst] = score;
+      arrivals[worst] = now;
+    }
+  }
+
+  /**
+   * Releases every kept frame and forgets any pending request.
+   */
+  synchronized void clear() {
+    for (int i = 0; i < count; i++) {
+      frames[i].release();
+      frames[i] = null;
+    }
+    count = 0;
+    requests.clear();
+  }
+
+  private static final class Request {
+    final Handler handler;
+    final int message;
+    final long time;
+
+    Request(Handler handler, int message, long time) {
+      this.handler = handler;
+      this.message = message;
+      this.time = time;
+    }
+  }
+
+  /**
+   * Releases the frame if the handler's looper has quit, since nobody would release it otherwise.
+   */
+  private static void send(Handler handler, int message, Frame frame) {
+    if (!handler.sendMessage(handler.obtainMessage(message, frame))) {
+      frame.release();
+    }
+  }
+
+  private void dropStale(long now) {
+    for (int i = count - 1; i >= 0; i--) {
+      if (now - arrivals[i] > MAX_CANDIDATE_AGE_MS) {
+        frames[i].release();
+        remove(i);
+      }
+    }
+  }
+
+  private void remove(int index) {
+    count--;
+    frames[index] = frames[count];
+    scores[index] = scores[count];
+    arrivals[index] = arrivals[count];
+    frames[count] = null;
+  }
+
+  private float score(Frame frame) {
+    Rect rect = region;
+    if (rect.right > frame.getWidth() || rect.bottom > frame.getHeight()) {
+      return 0.0f;
+    }
+    LuminanceSource source = frame.buildLuminanceSource(rect.left, rect.top, rect.width(),
+        rect.height());
+    int width = source.getWidth();
+    int height = source.getHeight();
+    long gradient = 0;
+    long sum = 0;
+    long sumOfSquares = 0;
+    int saturated = 0;
+    int samples = 0;
+    for (int y = 0; y < height; y += SAMPLE_STEP) {
+      row = source.getRow(y, row);
+      for (int x = 0; x + 1 < width; x += SAMPLE_STEP) {
+        int luminance = row[x] & 0xff;
+        gradient += Math.abs((row[x + 1] & 0xff) - luminance);
+        sum += luminance;
+        sumOfSquares += luminance * luminance;
+        if (luminance >= SATURATION_THRESHOLD) {
+          saturated++;
+        }
+        samples++;
+      }
+    }
+    if (samples == 0) {
+      return 0.0f;
+    }
+    float sharpness = (float) gradient / samples;
+    float mean = (float) sum / samples;
+    float deviation = (float) Math.sqrt(Math.max(0.0f, (float) sumOfSquares / samples - mean * mean));
+    float contrast = Math.min(1.0f, deviation / FULL_CONTRAST);
+    float glare = Math.min(1.0f, (float) saturated / samples / MAX_GLARE);
+    float focus = frame.getFocusState() == FocusState.UNFOCUSED ? UNFOCUSED_WEIGHT : 1.0f;
+    return sharpness * contrast * (1.0f - glare) * focus;
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * A camera pipeline that draws a preview into a surface and streams the preview {@link Frame}s,
+ * backed by a small pool of reused camera buffers, to a {@link FrameCallback}.
+ * {@link CameraManager} picks an implementation per device and talks to it exclusively.
+ */
+interface FrameSource {
+
+  /**
+   * Receives every preview frame while the preview runs.
+   */
+  interface FrameCallback {
+
+    /**
+     * Takes ownership of the frame, which must be released soon: the pool only holds
+     * {@link FrameSelector#POOL_SIZE} buffers, and the stream stalls once they are all taken.
+     */
+    void onFrame(Frame frame);
+  }
+
+  /**
+   * Hears of the camera being lost after it was opened, e.g. to another app or to a restart of
+   * the camera service.
+   */
+  interface ErrorCallback {
+
+    /** Called on a camera thread. The camera must be closed before it can be opened again. */
+    void onCameraLost();
+  }
+
+  /**
+   * Opens the camera, configures it and attaches the preview surface.
+   *
+   * @param holder The surface object which the camera will draw preview frames into.
+   * @throws IOException Indicates the camera driver failed to open.
+   */
+  void open(SurfaceHolder holder) throws IOException;
+
+  boolean isOpen();
+
+  /**
+   * Sets the digit height, in preview pixels, the preview size is chosen for. Applies from the
+   * next {@link #open}.
+   */
+  void setTargetDigitHeight(int targetDigitHeight);
+
+  /**
+   * Releases the camera. Safe to call when the camera is not open. May wait for frames still out
+   * to be released, so must not be called holding a lock the threads holding them may take.
+   */
+  void close();
+
+  void startPreview();
+
+  void stopPreview();
+
+  /**
+   * @param callback Receives the frames from now on; null stops the stream.
+   */
+  void setFrameCallback(FrameCallback callback);
+
+  void setErrorCallback(ErrorCallback callback);
+
+  /**
+   * @return Size of the frames delivered to {@link FrameCallback#onFrame}, or null before the
+   *         camera has been opened.
+   */
+  Point getPreviewSize();
+
+  /**
+   * @return Screen resolution in the current orientation, or null before the camera has been
+   *         opened.
+   */
+  Point getScreenResolution();
+
+  /**
+   * Points autofocus and auto-exposure at a region of the preview, normally the framing rectangle.
+   * May be called before the preview starts; the region is kept until it is replaced.
+   *
+   * @param regionInPreview Region to focus and meter on, in preview coordinates.
+   */
+  void setRegionOfInterest(Rect regionInPreview);
+
+  /**
+   * Starts a new focus scan over the region of interest right away, for instance because
+   * recognition confidence dropped. Does nothing on fixed-focus cameras.
+   */
+  void refocus();
+
+  /**
+   * Tells the source whether the last recognized frame was readable, so that it can focus more
+   * or less often.
+   */
+  void onRecognitionOutcome(boolean readable);
+
+  /**
+   * @return Largest zoom ratio the camera offers; 1 if it cannot zoom.
+   */
+  float getMaxZoomRatio();
+
+  float getZoomRatio();
+
+  /**
+   * Zooms to the supported ratio closest to the given one, between 1 and
+   * {@link #getMaxZoomRatio()}.
+   */
+  void setZoomRatio(float ratio);
+
+  boolean getTorchState();
+
+  void setTorch(boolean newSetting);
+
+  /**
+   * Allows choosing the camera ID, rather than determining it automatically.
+   *
+   * @param cameraId camera ID of the camera to use. A negative value means "no preference".
+   */
+  void setManualCameraId(int cameraId);
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2008 ZXing authors
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.content.Context;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import com.daxslab.fotorecarga.camera.open.OpenCamera;
+import com.daxslab.fotorecarga.camera.open.OpenCameraInterface;
+
+import java.io.IOException;
+
+/**
+ * {@link FrameSource} on top of the original {@link Camera} API. Frames are NV21 arrays filled by
+ * the driver into a pool of callback buffers, see {@link PreviewCallback}.
+ */
+@SuppressWarnings("deprecation") // camera APIs
+final class LegacyFrameSource implements FrameSource {
+
+  private static final String TAG = LegacyFrameSource.class.getSimpleName();
+
+  private final Context context;
+  private final CameraConfigurationManager configManager;
+  private OpenCamera camera;
+  private AutoFocusManager autoFocusManager;
+  private boolean initialized;
+  private boolean previewing;
+  private int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
+  /**
+   * Preview frames are delivered here, which we pass on to the registered callback.
+   */
+  private final PreviewCallback previewCallback;
+  private volatile ErrorCallback errorCallback;
+
+  LegacyFrameSource(Context context) {
+    this.context = context;
+    this.configManager = new CameraConfigurationManager(context);
+    previewCallback = new PreviewCallback(configManager);
+  }
+
+  @Override
+  public synchronized void open(SurfaceHolder holder) throws IOException {
+    OpenCamera theCamera = camera;
+    if (theCamera == null) {
+      theCamera = OpenCameraInterface.open(requestedCameraId);
+      if (theCamera == null) {
+        throw new IOException("Camera.open() failed to return object from driver");
+      }
+      camera = theCamera;
+      theCamera.getCamera().setErrorCallback(new Camera.ErrorCallback() {
+        @Override
+        public void onError(int error, Camera errorCamera) {
+          Log.w(TAG, "Camera error " + error);
+          ErrorCallback theErrorCallback = errorCallback;
+          if (theErrorCallback != null) {
+            theErrorCallback.onCameraLost();
+          }
+        }
+      });
+    }
+
+    if (!initialized) {
+      initialized = true;
+      configManager.initFromCameraParameters(theCamera);
+    }
+
+    Camera cameraObject = theCamera.getCamera();
+    Camera.Parameters parameters = cameraObject.getParameters();
+    String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
+    try {
+      configManager.setDesiredCameraParameters(theCamera, false);
+    } catch (RuntimeException re) {
+      // Driver failed
+      Log.w(TAG, "Camera rejected parameters. Setting only minimal safe-mode parameters");
+      Log.i(TAG, "Resetting to saved camera params: " + parametersFlattened);
+      // Reset:
+      if (parametersFlattened != null) {
+        parameters = cameraObject.getParameters();
+        parameters.unflatten(parametersFlattened);
+        try {
+          cameraObject.setParameters(parameters);
+          configManager.setDesiredCameraParameters(theCamera, true);
+        } catch (RuntimeException re2) {
+          // Well, darn. Give up
+          Log.w(TAG, "Camera rejected even safe-mode parameters! No configuration");
+        }
+      }
+    }
+    cameraObject.setPreviewDisplay(holder);
+  }
+
+  @Override
+  public synchronized void setTargetDigitHeight(int targetDigitHeight) {
+    configManager.setTargetDigitHeight(targetDigitHeight);
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return camera != null;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (camera != null) {
+      previewCallback.stopStreaming();
+      camera.getCamera().release();
+      camera = null;
+      // Read the parameters again on the next open, in case the preview size target changed.
+      initialized = false;
+    }
+  }
+
+  @Override
+  public synchronized void startPreview() {
+    OpenCamera theCamera = camera;
+    if (theCamera != null && !previewing) {
+      previewCallback.startStreaming(theCamera.getCamera(), FrameSelector.POOL_SIZE);
+      theCamera.getCamera().startPreview();
+      previewing = true;
+      autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
+      previewCallback.setAutoFocusManager(autoFocusManager);
+    }
+  }
+
+  @Override
+  public synchronized void stopPreview() {
+    if (autoFocusManager != null) {
+      autoFocusManager.stop();
+      autoFocusManager = null;
+      previewCallback.setAutoFocusManager(null);
+    }
+    if (camera != null && previewing) {
+      previewCallback.stopStreaming();
+      camera.getCamera().stopPreview();
+      previewing = false;
+    }
+  }
+
+  @Override
+  public void setErrorCallback(ErrorCallback callback) {
+    errorCallback = callback;
+  }
+
+  @Override
+  public void setFrameCallback(FrameCallback callback) {
+    previewCallback.setFrameCallback(callback);
+  }
+
+  @Override
+  public Point getPreviewSize() {
+    return configManager.getCameraResolution();
+  }
+
+  @Override
+  public Point getScreenResolution() {
+    return configManager.getScreenResolution();
+  }
+
+  @Override
+  public synchronized void setRegionOfInterest(Rect regionInPreview) {
+    OpenCamera theCamera = camera;
+    if (theCamera != null) {
+      configManager.setRegionOfInterest(theCamera.getCamera(), regionInPreview);
+    }
+  }
+
+  @Override
+  public synchronized void refocus() {
+    if (autoFocusManager != null) {
+      autoFocusManager.refocus();
+    }
+  }
+
+  @Override
+  public synchronized void onRecognitionOutcome(boolean readable) {
+    if (autoFocusManager != null) {
+      autoFocusManager.onRecognitionOutcome(readable);
+    }
+  }
+
+  @Override
+  public float getMaxZoomRatio() {
+    return configManager.getMaxZoomRatio();
+  }
+
+  @Override
+  public float getZoomRatio() {
+    return configManager.getZoomRatio();
+  }
+
+  @Override
+  public synchronized void setZoomRatio(float ratio) {
+    OpenCamera theCamera = camera;
+    if (theCamera != null) {
+      configManager.setZoomRatio(theCamera.getCamera(), ratio);
+    }
+  }
+
+  @Override
+  public synchronized boolean getTorchState() {
+    return camera != null && configManager.getTorchState(camera.getCamera());
+  }
+
+  @Override
+  public synchronized void setTorch(boolean newSetting) {
+    OpenCamera theCamera = camera;
+    if (theCamera != null) {
+      if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
+        // Focus keeps running: the torch is switched automatically, often mid-scan, and
+        // restarting autofocus each time would throw away the focus state.
+        try {
+          configManager.setTorch(theCamera.getCamera(), newSetting);
+        } catch (RuntimeException re) {
+          Log.w(TAG, "Camera rejected torch setting " + newSetting, re);
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void setManualCameraId(int cameraId) {
+    requestedCameraId = cameraId;
+  }
+
+}
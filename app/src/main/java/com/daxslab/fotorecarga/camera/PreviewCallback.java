@@ -16,42 +16,110 @@
 
 package com.daxslab.fotorecarga.camera;
 
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
-import android.os.Handler;
-import android.os.Message;
 import android.util.Log;
 
+/**
+ * Streams preview frames into a {@link FrameSource.FrameCallback} using a pool of callback
+ * buffers: each frame wraps one buffer and hands it back to the camera when it is released, so no
+ * buffer is allocated per frame. Buffers released after streaming stopped are dropped.
+ */
 @SuppressWarnings("deprecation") // camera APIs
 final class PreviewCallback implements Camera.PreviewCallback {
 
   private static final String TAG = PreviewCallback.class.getSimpleName();
 
   private final CameraConfigurationManager configManager;
-  private Handler previewHandler;
-  private int previewMessage;
+  private volatile FrameSource.FrameCallback frameCallback;
+  private volatile AutoFocusManager autoFocusManager;
+  private Camera streamingCamera;
+  private int generation;
 
   PreviewCallback(CameraConfigurationManager configManager) {
     this.configManager = configManager;
   }
 
-  void setHandler(Handler previewHandler, int previewMessage) {
-    this.previewHandler = previewHandler;
-    this.previewMessage = previewMessage;
+  void setFrameCallback(FrameSource.FrameCallback frameCallback) {
+    this.frameCallback = frameCallback;
+  }
+
+  /**
+   * @param autoFocusManager Source of the focus state of delivered frames; null when the preview
+   *                         is stopped.
+   */
+  void setAutoFocusManager(AutoFocusManager autoFocusManager) {
+    this.autoFocusManager = autoFocusManager;
+  }
+
+  /**
+   * Gives the camera a fresh pool of buffers and starts receiving frames in them.
+   */
+  synchronized void startStreaming(Camera camera, int bufferCount) {
+    generation++;
+    streamingCamera = camera;
+    Point cameraResolution = configManager.getCameraResolution();
+    int bufferSize =
+            cameraResolution.x * cameraResolution.y * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    for (int i = 0; i < bufferCount; i++) {
+      camera.addCallbackBuffer(new byte[bufferSize]);
+    }
+    camera.setPreviewCallbackWithBuffer(this);
+  }
+
+  /**
+   * Stops receiving frames; buffers still held by frames are not given back to the camera.
+   */
+  synchronized void stopStreaming() {
+    if (streamingCamera != null) {
+      streamingCamera.setPreviewCallbackWithBuffer(null);
+      streamingCamera = null;
+    }
+    generation++;
+  }
+
+  private synchronized int getGeneration() {
+    return generation;
+  }
+
+  private synchronized void recycle(byte[] buffer, int bufferGeneration) {
+    if (streamingCamera != null && bufferGeneration == generation) {
+      streamingCamera.addCallbackBuffer(buffer);
+    }
   }
 
   @Override
   public void onPreviewFrame(byte[] data, Camera camera) {
+    int bufferGeneration = getGeneration();
     Point cameraResolution = configManager.getCameraResolution();
-    Handler thePreviewHandler = previewHandler;
-    if (cameraResolution != null && thePreviewHandler != null) {
-      Message message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
-              cameraResolution.y, data);
-      message.sendToTarget();
-      previewHandler = null;
+    FrameSource.FrameCallback theFrameCallback = frameCallback;
+    if (cameraResolution != null && theFrameCallback != null) {
+      AutoFocusManager theAutoFocusManager = autoFocusManager;
+      FocusState focusState =
+              theAutoFocusManager == null ? FocusState.UNKNOWN : theAutoFocusManager.getFocusState();
+      Frame frame = new Frame(data, cameraResolution.x, cameraResolution.y, System.nanoTime(),
+              focusState, new BufferReleaser(data, bufferGeneration));
+      theFrameCallback.onFrame(frame);
     } else {
-      Log.d(TAG, "Got preview callback, but no handler or resolution available");
+      Log.d(TAG, "Got preview callback, but no callback or resolution available");
+      recycle(data, bufferGeneration);
+    }
+  }
+
+  private final class BufferReleaser implements Runnable {
+    private final byte[] buffer;
+    private final int bufferGeneration;
+
+    BufferReleaser(byte[] buffer, int bufferGeneration) {
+      this.buffer = buffer;
+      this.bufferGeneration = bufferGeneration;
+    }
+
+    @Override
+    public void run() {
+      recycle(buffer, bufferGeneration);
     }
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Chooses the preview size for OCR. Only the framing rectangle is ever recognized, so rather than
+ * the largest preview the camera offers we want the smallest one in which a recharge code filling
+ * the framing rectangle is still drawn with digits of the target height, by default
+ * {@link #TARGET_DIGIT_HEIGHT} pixels.
+ *
+ * The choice depends only on the camera, the screen and the target, so it is cached per camera,
+ * screen size and target in shared preferences and reused on later launches as long as the
+ * camera still offers it.
+ */
+final class PreviewSizeSelector {
+
+  private static final String TAG = PreviewSizeSelector.class.getSimpleName();
+
+  private static final String PREFS_NAME = "preview_sizes";
+
+  /** Height, in preview pixels, at which Tesseract reliably reads the code digits. */
+  static final int TARGET_DIGIT_HEIGHT = 24;
+
+  /** Character cells across a recharge code: 16 digits plus the gaps between the groups of 4. */
+  private static final int CODE_CELLS = 19;
+
+  /** Height of a digit relative to the width of its cell. */
+  private static final float DIGIT_ASPECT = 1.5f;
+
+  /** Height of the framing rectangle, in code lines, needed to leave room around the code. */
+  private static final int FRAME_HEIGHT_IN_LINES = 2;
+
+  private final SharedPreferences cache;
+  private int targetDigitHeight = TARGET_DIGIT_HEIGHT;
+
+  PreviewSizeSelector(Context context) {
+    cache = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  /**
+   * Lowers or raises the digit height previews are chosen for, trading recognition detail for
+   * less work per frame. Applies to the next selection.
+   */
+  void setTargetDigitHeight(int targetDigitHeight) {
+    this.targetDigitHeight = targetDigitHeight;
+  }
+
+  /**
+   * @param cameraKey Identifies the camera, unique across camera APIs.
+   * @param supportedSizes Preview sizes supported by the camera.
+   * @param defaultSize Size to fall back on when none is suitable; may be null.
+   * @param screenResolution Screen resolution in the current orientation.
+   * @return The chosen preview size.
+   */
+  Point select(String cameraKey, List<Point> supportedSizes, Point defaultSize, Point screenResolution) {
+    String key = cameraKey + '/' + screenResolution.x + 'x' + screenResolution.y + '/'
+        + targetDigitHeight;
+    Point cached = parseSize(cache.getString(key, null));
+    if (cached != null && supportedSizes.contains(cached)) {
+      Log.i(TAG, "Using cached preview size " + cached + " for " + key);
+      return cached;
+    }
+
+    Point minimum = findMinimumPreviewSize(screenResolution, targetDigitHeight);
+    Point selected = findSmallestPreviewSize(supportedSizes, minimum, screenResolution);
+    if (selected == null) {
+      Log.i(TAG, "No preview size reaches " + minimum + "; falling back to the largest one");
+      selected = CameraConfigurationUtils.findBestPreviewSizeValue(supportedSizes, defaultSize,
+          screenResolution);
+    }
+    Log.i(TAG, "Selected preview size " + selected + " for " + key + " (needs " + minimum + ')');
+    cache.edit().putString(key, selected.x + "x" + selected.y).apply();
+    return selected;
+  }
+
+  /**
+   * Works out the smallest preview, in screen orientation, in which a code filling the framing
+   * rectangle has digits of the given height.
+   */
+  static Point findMinimumPreviewSize(Point screenResolution, int digitHeight) {
+    Rect frame = CameraManager.computeFramingRect(screenResolution);
+    float frameWidthFraction = (float) frame.width() / screenResolution.x;
+    float frameHeightFraction = (float) frame.height() / screenResolution.y;
+    float codeWidth = CODE_CELLS * digitHeight / DIGIT_ASPECT;
+    float codeHeight = FRAME_HEIGHT_IN_LINES * digitHeight;
+    return new Point((int) Math.ceil(codeWidth / frameWidthFraction),
+                     (int) Math.ceil(codeHeight / frameHeightFraction));
+  }
+
+  private static Point findSmallestPreviewSize(List<Point> supportedSizes,
+                                               Point minimum,
+                                               Point screenResolution) {
+    Point smallest = null;
+    for (Point size : supportedSizes) {
+      if (!CameraConfigurationUtils.isSuitablePreviewSize(size, screenResolution)) {
+        continue;
+      }
+      boolean isCandidatePortrait = size.x < size.y;
+      boolean isScreenPortrait = screenResolution.x < screenResolution.y;
+      int widthOnScreen = isCandidatePortrait == isScreenPortrait ? size.x : size.y;
+      int heightOnScreen = isCandidatePortrait == isScreenPortrait ? size.y : size.x;
+      if (widthOnScreen < minimum.x || heightOnScreen < minimum.y) {
+        continue;
+      }
+      if (smallest == null || size.x * size.y < smallest.x * smallest.y) {
+        smallest = size;
+      }
+    }
+    return smallest == null ? null : new Point(smallest);
+  }
+
+  private static Point parseSize(String value) {
+    if (value == null) {
+      return null;
+    }
+    int separator = value.indexOf('x');
+    if (separator <= 0) {
+      return null;
+    }
+    try {
+      return new Point(Integer.parseInt(value.substring(0, separator)),
+                       Integer.parseInt(value.substring(separator + 1)));
+    } catch (NumberFormatException nfe) {
+      return null;
+    }
+  }
+
+}
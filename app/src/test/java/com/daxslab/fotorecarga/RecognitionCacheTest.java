@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 DaxsLab
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.daxslab.fotorecarga;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecognitionCacheTest {
+
+  private static final int PIXELS = RecognitionCache.HASH_WIDTH * RecognitionCache.HASH_HEIGHT;
+
+  /** Alternating dark and light columns, like a row of digits. */
+  private static int[] stripes(int dark, int light) {
+    int[] pixels = new int[PIXELS];
+    for (int i = 0; i < PIXELS; i++) {
+      pixels[i] = (i % RecognitionCache.HASH_WIDTH) % 2 == 0 ? dark : light;
+    }
+    return pixels;
+  }
+
+  /** A hash far from every other one made here: 16 bits set at a place of its own. */
+  private static long[] distinctHash(int index) {
+    long block = 0xFFFFL << (16 * (index % 4));
+    return index < 4 ? new long[] {block, 0L} : new long[] {0L, block};
+  }
+
+  private static OcrResult result(String text) {
+    OcrResult result = new OcrResult();
+    result.setText(text);
+    result.setMeanConfidence(80);
+    result.setRecognitionTimeRequired(500L);
+    return result;
+  }
+
+  @Test
+  public void hashIgnoresExposure() {
+    long[] dim = RecognitionCache.hash(stripes(20, 60));
+    long[] bright = RecognitionCache.hash(stripes(120, 220));
+    assertEquals(0, RecognitionCache.distance(dim, bright));
+  }
+
+  @Test
+  public void hashSeesSmallChangesAsNear() {
+    int[] pixels = stripes(20, 200);
+    long[] original = RecognitionCache.hash(pixels);
+    // One pixel flipped changes at most the two gradients it is part of.
+    pixels[RecognitionCache.HASH_WIDTH + 2] = 200;
+    long[] changed = RecognitionCache.hash(pixels);
+    int distance = RecognitionCache.distance(original, changed);
+    assertTrue(distance > 0);
+    assertTrue(distance <= RecognitionCache.MAX_DISTANCE);
+  }
+
+  @Test
+  public void hashSeesInvertedContentAsFar() {
+    long[] original = RecognitionCache.hash(stripes(20, 200));
+    long[] inverted = RecognitionCache.hash(stripes(200, 20));
+    assertTrue(RecognitionCache.distance(original, inverted) > RecognitionCache.MAX_DISTANCE);
+  }
+
+  @Test
+  public void distanceCountsDifferingBits() {
+    assertEquals(0, RecognitionCache.distance(new long[] {5L, 9L}, new long[] {5L, 9L}));
+    assertEquals(3, RecognitionCache.distance(new long[] {0L, 0L}, new long[] {1L, 6L}));
+    assertEquals(128, RecognitionCache.distance(new long[] {0L, 0L}, new long[] {-1L, -1L}));
+  }
+
+  @Test
+  public void hitWithinThresholdIsMarkedCached() {
+    RecognitionCache cache = new RecognitionCache();
+    long[] hash = distinctHash(0);
+    cache.put(hash, result("1234"), 0L);
+
+    long[] near = {hash[0] ^ ((1L << RecognitionCache.MAX_DISTANCE) - 1), hash[1]};
+    OcrResult hit = cache.get(near, null, 100L);
+    assertNotNull(hit);
+    assertTrue(hit.isCached());
+    assertEquals("1234", hit.getText());
+    assertEquals(500L, hit.getRecognitionTimeRequired());
+    assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void missBeyondThreshold() {
+    RecognitionCache cache = new RecognitionCache();
+    long[] hash = distinctHash(0);
+    cache.put(hash, result("1234"), 0L);
+
+    long[] far = {hash[0] ^ ((1L << (RecognitionCache.MAX_DISTANCE + 1)) - 1), hash[1]};
+    assertNull(cache.get(far, null, 100L));
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void entriesExpire() {
+    RecognitionCache cache = new RecognitionCache();
+    long[] hash = distinctHash(0);
+    cache.put(hash, result("1234"), 0L);
+
+    assertNotNull(cache.get(hash, null, RecognitionCache.ENTRY_LIFETIME_MS));
+    // A hit does not extend the lifetime.
+    assertNull(cache.get(hash, null, RecognitionCache.ENTRY_LIFETIME_MS + 1));
+  }
+
+  @Test
+  public void leastRecentlyUsedIsEvicted() {
+    RecognitionCache cache = new RecognitionCache();
+    for (int i = 0; i < RecognitionCache.MAX_ENTRIES; i++) {
+      cache.put(distinctHash(i), result("code" + i), 0L);
+    }
+    // Using the oldest entry makes the second oldest the least recently used.
+    assertNotNull(cache.get(distinctHash(0), null, 1L));
+    cache.put(distinctHash(RecognitionCache.MAX_ENTRIES), result("new"), 2L);
+
+    assertNotNull(cache.get(distinctHash(0), null, 3L));
+    assertNull(cache.get(distinctHash(1), null, 3L));
+    for (int i = 2; i <= RecognitionCache.MAX_ENTRIES; i++) {
+      assertNotNull(cache.get(distinctHash(i), null, 3L));
+    }
+  }
+
+  @Test
+  public void invalidateForgetsEverything() {
+    RecognitionCache cache = new RecognitionCache();
+    cache.put(distinctHash(0), result("1234"), 0L);
+    cache.invalidate();
+    assertNull(cache.get(distinctHash(0), null, 1L));
+  }
+
+}